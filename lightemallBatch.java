@@ -0,0 +1,118 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// generates many puzzles at once on a fork-join pool, for filling up a pool of
+// boards ahead of time
+// the boards are numbered, and board i always comes out the same for the same
+// seed: the random streams are split off a SplittableRandom along a fixed tree
+// over the numbers, so which thread runs which board never matters
+class BatchGenerator {
+  // the most boards one task generates itself before splitting the rest off,
+  // part of the split tree, so changing it changes every board
+  static final int LEAF_BOARDS = 4;
+
+  int width;
+  int height;
+  long seed;
+
+  BatchGenerator(int width, int height, long seed) {
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+  }
+
+  // EFFECT: generates boards 0 up to count on the given pool, each scrambled and
+  // with a single solution, handing every one to the sink
+  void generate(int count, ForkJoinPool pool, BoardSink sink) {
+    pool.invoke(new BatchTask(this, new SplittableRandom(this.seed), 0, count, sink));
+  }
+
+  // EFFECT: lays out a new puzzle into the given board, which has no connectors
+  // yet, from the given stream
+  void generateOne(BitBoard board, SplittableRandom stream) {
+    Random rand = new Random(stream.nextLong());
+    LightEmAllEngine.generateUnique(board, rand);
+    LightEmAllEngine.scramble(board, rand);
+  }
+}
+
+// generates the boards from lo up to hi, splitting the range in half until
+// it is small enough
+class BatchTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  BatchGenerator generator;
+  SplittableRandom stream;
+  int lo;
+  int hi;
+  BoardSink sink;
+
+  BatchTask(BatchGenerator generator, SplittableRandom stream, int lo, int hi, BoardSink sink) {
+    this.generator = generator;
+    this.stream = stream;
+    this.lo = lo;
+    this.hi = hi;
+    this.sink = sink;
+  }
+
+  protected void compute() {
+    if (this.hi - this.lo <= BatchGenerator.LEAF_BOARDS) {
+      BitBoard board = new BitBoard(this.generator.width, this.generator.height);
+      for (int i = this.lo; i < this.hi; i++) {
+        java.util.Arrays.fill(board.connectors, 0);
+        this.generator.generateOne(board, this.stream.split());
+        this.sink.accept(i, board);
+      }
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      // the split happens before either half runs, so it is the same every time
+      BatchTask left = new BatchTask(this.generator, this.stream.split(), this.lo, mid, this.sink);
+      BatchTask right = new BatchTask(this.generator, this.stream, mid, this.hi, this.sink);
+      invokeAll(left, right);
+    }
+  }
+}
+
+// where generated boards go, called from many threads at once with distinct
+// board numbers
+interface BoardSink {
+  // EFFECT: keeps the connectors of board number index, which may be reused
+  // once this returns
+  void accept(int index, BitBoard board);
+}
+
+// a sink that keeps every board's connectors packed four bits a cell in one
+// long array, a 100x100 board taking 5 kilobytes
+class PackedBoards implements BoardSink {
+  int width;
+  int height;
+  // the longs each board takes
+  int stride;
+  long[] words;
+
+  PackedBoards(int width, int height, int count) {
+    this.width = width;
+    this.height = height;
+    this.stride = (width * height + 15) >>> 4;
+    this.words = new long[this.stride * count];
+  }
+
+  // every board writes to its own part of words, so no locking is needed
+  public void accept(int index, BitBoard board) {
+    System.arraycopy(board.connectors, 0, this.words, index * this.stride, this.stride);
+  }
+
+  // how many boards there is room for
+  int count() {
+    return this.words.length / this.stride;
+  }
+
+  // a copy of board number index
+  BitBoard board(int index) {
+    BitBoard board = new BitBoard(this.width, this.height);
+    System.arraycopy(this.words, index * this.stride, board.connectors, 0, this.stride);
+    return board;
+  }
+}
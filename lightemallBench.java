@@ -0,0 +1,172 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Random;
+
+import javalib.worldimages.*;
+
+// a benchmark harness for the hot paths of the game: generating a board, powering it,
+// clicking a tile, checking for a win, resetting and drawing
+// every benchmark runs on boards from 5x5 up to 2048x2048, warms up, then reports
+// throughput and how many bytes each operation allocates, so slow or allocating
+// changes show up before they are shipped
+//
+// run with the game on the classpath:
+//   java -cp javalib.jar:tester.jar:. LightEmAllBenchmarks [millis] [size ...]
+class LightEmAllBenchmarks {
+  static final int[] SIZES = {5, 64, 256, 1024, 2048};
+
+  // how long each benchmark warms up and then measures, in milliseconds
+  static final long DEFAULT_MILLIS = 1000;
+
+  // results are folded into here so the JIT cannot drop the work
+  static volatile long sink;
+
+  public static void main(String[] args) {
+    long millis = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_MILLIS;
+    int[] sizes = SIZES;
+    if (args.length > 1) {
+      sizes = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        sizes[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println(String.format("%-20s %6s %14s %14s %12s", "benchmark", "size", "ops/s",
+        "us/op", "bytes/op"));
+    for (int size : sizes) {
+      for (BenchResult result : LightEmAllBenchmarks.runAll(size, millis)) {
+        System.out.println(result);
+      }
+    }
+  }
+
+  // runs every benchmark on a size x size board
+  // the boards are plain Kruskal boards, not rewired to a single solution,
+  // which would take minutes at the bigger sizes and changes nothing measured
+  static ArrayList<BenchResult> runAll(int size, long millis) {
+    ArrayList<BenchResult> results = new ArrayList<>();
+    Random rand = new Random(size);
+    LightEmAll2 game = new LightEmAll2(size, size, rand, false);
+    Random clicks = new Random(1);
+
+    results.add(LightEmAllBenchmarks.measure("generateEdges", size, millis,
+        () -> KruskalEdges.sortedEdges(size, size, rand).length));
+    results.add(LightEmAllBenchmarks.measure("MST", size, millis, () -> {
+      BitBoard bits = new BitBoard(size, size);
+      LightEmAllEngine.generate(bits, rand);
+      return bits.mask(0);
+    }));
+    results.add(LightEmAllBenchmarks.measure("bfs", size, millis, () -> {
+      game.bfs();
+      return game.engine.steps;
+    }));
+    results.add(LightEmAllBenchmarks.measure("onMouseClicked", size, millis, () -> {
+      game.onMouseClicked(new Posn(clicks.nextInt(size) * 50 + 25,
+          clicks.nextInt(size) * 50 + 25));
+      return game.engine.steps;
+    }));
+    LightEmAllEngine limited = new LightEmAllEngine(new BitBoard(size, size), rand, false);
+    limited.setRadiusMode(true);
+    results.add(LightEmAllBenchmarks.measure("rotate (radius)", size, millis, () -> {
+      limited.rotate(clicks.nextInt(size), clicks.nextInt(size));
+      return limited.steps;
+    }));
+    // a thousand random rotations a batch, powered once at the end
+    int[] cols = new int[1000];
+    int[] rows = new int[1000];
+    int[] turns = new int[1000];
+    results.add(LightEmAllBenchmarks.measure("rotateAll (1000)", size, millis, () -> {
+      for (int i = 0; i < cols.length; i++) {
+        cols[i] = clicks.nextInt(size);
+        rows[i] = clicks.nextInt(size);
+        turns[i] = 1 + clicks.nextInt(3);
+      }
+      limited.rotateAll(cols, rows, turns);
+      return limited.steps;
+    }));
+    results.add(LightEmAllBenchmarks.measure("checkWinCondition", size, millis,
+        () -> game.checkWinCondition() ? 1 : 0));
+    // nothing changes the game while this runs, so after the first frame the
+    // tile images are only placed again
+    results.add(LightEmAllBenchmarks.measure("makeScene", size, millis,
+        () -> game.makeScene().width));
+    results.add(LightEmAllBenchmarks.measure("resetBoard", size, millis, () -> {
+      game.resetBoard();
+      return game.nodes.size();
+    }));
+    return results;
+  }
+
+  // runs the given operation over and over for millis to warm up, then again for
+  // millis while counting operations, time and allocated bytes
+  static BenchResult measure(String name, int size, long millis, BenchOp op) {
+    LightEmAllBenchmarks.repeat(op, millis);
+    long allocatedBefore = LightEmAllBenchmarks.allocatedBytes();
+    long start = System.nanoTime();
+    long ops = LightEmAllBenchmarks.repeat(op, millis);
+    long nanos = System.nanoTime() - start;
+    long allocated = LightEmAllBenchmarks.allocatedBytes() - allocatedBefore;
+    return new BenchResult(name, size, ops, nanos, allocatedBefore < 0 ? -1 : allocated);
+  }
+
+  // runs the given operation at least once and until millis have passed
+  // returns how many times it ran
+  static long repeat(BenchOp op, long millis) {
+    long end = System.nanoTime() + millis * 1000000;
+    long ops = 0;
+    long total = 0;
+    do {
+      total += op.run();
+      ops++;
+    } while (System.nanoTime() < end);
+    sink += total;
+    return ops;
+  }
+
+  // the bytes allocated by this thread so far, or -1 if the JVM cannot tell
+  static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
+
+// an operation to benchmark, returning something derived from its work
+interface BenchOp {
+  long run();
+}
+
+// the outcome of one benchmark on one board size
+class BenchResult {
+  String name;
+  int size;
+  long ops;
+  long nanos;
+  // allocated during the measured run, -1 if unknown
+  long allocated;
+
+  BenchResult(String name, int size, long ops, long nanos, long allocated) {
+    this.name = name;
+    this.size = size;
+    this.ops = ops;
+    this.nanos = nanos;
+    this.allocated = allocated;
+  }
+
+  double opsPerSecond() {
+    return this.ops * 1e9 / this.nanos;
+  }
+
+  double bytesPerOp() {
+    return this.allocated < 0 ? -1 : (double) this.allocated / this.ops;
+  }
+
+  public String toString() {
+    return String.format("%-20s %6d %14.1f %14.2f %12.0f", this.name, this.size,
+        this.opsPerSecond(), this.nanos / 1e3 / this.ops, this.bytesPerOp());
+  }
+}
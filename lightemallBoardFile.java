@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// a compact file for one board:
+//   a 32 byte header: the magic number, width, height, flags, seed and the
+//     column and row of the power station, all big-endian
+//   the connectors, four bits a cell with cell 2i in the low half of byte i
+//     and cell 2i + 1 in the high half, cells numbered column by column
+//   if the SOLVED flag is set, the quarter turns that win the board, two bits
+//     a cell with cell 4i in the lowest two bits of byte i
+// the connectors are laid out like a BitBoard's longs written little-endian,
+// so a BitBoard is written and read in bulk
+class BoardFile {
+  // "LEA1"
+  static final int MAGIC = 0x4C454131;
+  static final int HEADER_BYTES = 32;
+  // set in the flags when the file has the solution layer
+  static final int SOLVED = 1;
+
+  // the bytes the connectors of a board with the given number of cells take
+  static int connectorBytes(int size) {
+    return (size + 1) >>> 1;
+  }
+
+  // the bytes the solution of a board with the given number of cells takes
+  static int solutionBytes(int size) {
+    return (size + 3) >>> 2;
+  }
+
+  // EFFECT: writes the given board to the given file, replacing it, along with
+  // the seed it came from, where its station is, and the turns that win it if
+  // solution is not null
+  static void write(Path path, BoardModel board, long seed, int stationCol, int stationRow,
+      byte[] solution) throws IOException {
+    int size = board.width() * board.height();
+    long length = (long) HEADER_BYTES + connectorBytes(size)
+        + (solution == null ? 0 : solutionBytes(size));
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      out.putInt(MAGIC);
+      out.putInt(board.width());
+      out.putInt(board.height());
+      out.putInt(solution == null ? 0 : SOLVED);
+      out.putLong(seed);
+      out.putInt(stationCol);
+      out.putInt(stationRow);
+
+      if (board instanceof BitBoard) {
+        // whole longs while they fit, the last few cells a byte at a time
+        long[] connectors = ((BitBoard) board).connectors;
+        int whole = connectorBytes(size) >>> 3;
+        out.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(connectors, 0, whole);
+        out.position(out.position() + (whole << 3));
+        for (int cell = whole << 4; cell < size; cell += 2) {
+          out.put(BoardFile.packPair(board, cell, size));
+        }
+      } else if (board instanceof DirectBoard) {
+        // already laid out as in the file
+        out.put(((DirectBoard) board).connectors.duplicate().clear());
+      } else {
+        for (int cell = 0; cell < size; cell += 2) {
+          out.put(BoardFile.packPair(board, cell, size));
+        }
+      }
+
+      if (solution != null) {
+        for (int cell = 0; cell < size; cell += 4) {
+          int packed = 0;
+          for (int i = 0; i < 4 && cell + i < size; i++) {
+            packed |= (solution[cell + i] & 3) << (2 * i);
+          }
+          out.put((byte) packed);
+        }
+      }
+      out.force();
+    }
+  }
+
+  // the connectors of the given cell and the one after it in one byte
+  static byte packPair(BoardModel board, int cell, int size) {
+    int high = cell + 1 < size ? board.mask(cell + 1) : 0;
+    return (byte) (board.mask(cell) | (high << 4));
+  }
+
+  // maps the given file as a board, without reading it cell by cell
+  // changes to the board stay in memory and never reach the file
+  static MappedBoard load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (channel.size() < HEADER_BYTES || in.getInt(0) != MAGIC) {
+        throw new IOException("not a board file: " + path);
+      }
+      int width = in.getInt(4);
+      int height = in.getInt(8);
+      int flags = in.getInt(12);
+      // a made up header can ask for more cells than an int counts
+      long count = (long) width * height;
+      if (width <= 0 || height <= 0 || count > Integer.MAX_VALUE) {
+        throw new IOException("not a board size: " + width + " x " + height + " in " + path);
+      }
+      int size = (int) count;
+      long length = (long) HEADER_BYTES + connectorBytes(size)
+          + ((flags & SOLVED) != 0 ? solutionBytes(size) : 0);
+      if (channel.size() < length) {
+        throw new IOException("truncated board file: " + path);
+      }
+      ByteBuffer cells = in.slice(HEADER_BYTES, connectorBytes(size));
+      ByteBuffer solution = (flags & SOLVED) == 0 ? null
+          : in.slice(HEADER_BYTES + connectorBytes(size), solutionBytes(size));
+      return new MappedBoard(width, height, in.getLong(16), in.getInt(24), in.getInt(28), cells,
+          solution);
+    }
+  }
+}
+
+// a board read straight out of a mapped board file, four bits a cell
+class MappedBoard implements BoardModel {
+  int width;
+  int height;
+  // what the file says about where the board came from
+  long seed;
+  int stationCol;
+  int stationRow;
+  // the connectors, laid out as in the file, read-only and mapped until the
+  // first change copies them into memory
+  ByteBuffer cells;
+  // the turns that win the board, or null if the file has none
+  ByteBuffer solution;
+  // bit i % 64 of powered[i / 64] is set when cell i is powered
+  long[] powered;
+  int poweredCount;
+
+  MappedBoard(int width, int height, long seed, int stationCol, int stationRow, ByteBuffer cells,
+      ByteBuffer solution) {
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+    this.stationCol = stationCol;
+    this.stationRow = stationRow;
+    this.cells = cells;
+    this.solution = solution;
+    this.powered = new long[(width * height + 63) >>> 6];
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int mask(int cell) {
+    return (this.cells.get(cell >>> 1) >>> ((cell & 1) << 2)) & 0xF;
+  }
+
+  public void setMask(int cell, int mask) {
+    if (this.cells.isReadOnly()) {
+      ByteBuffer copy = ByteBuffer.allocate(this.cells.capacity());
+      copy.put(this.cells.duplicate().clear());
+      this.cells = copy;
+    }
+    int shift = (cell & 1) << 2;
+    int pair = this.cells.get(cell >>> 1);
+    this.cells.put(cell >>> 1, (byte) ((pair & ~(0xF << shift)) | ((mask & 0xF) << shift)));
+  }
+
+  public boolean isPowered(int cell) {
+    return (this.powered[cell >>> 6] & (1L << cell)) != 0;
+  }
+
+  public void setPowered(int cell, boolean powered) {
+    if (powered != this.isPowered(cell)) {
+      this.powered[cell >>> 6] ^= 1L << cell;
+      this.poweredCount += powered ? 1 : -1;
+    }
+  }
+
+  public int poweredCount() {
+    return this.poweredCount;
+  }
+
+  // a BitBoard with the same connectors, copied in bulk
+  BitBoard toBitBoard() {
+    BitBoard bits = new BitBoard(this.width, this.height);
+    int whole = this.cells.capacity() >>> 3;
+    this.cells.duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer()
+        .get(bits.connectors, 0, whole);
+    for (int cell = whole << 4; cell < this.width * this.height; cell++) {
+      bits.setMask(cell, this.mask(cell));
+    }
+    return bits;
+  }
+
+  // the quarter turns that win the given cell, or -1 if the file has no solution
+  int solutionTurns(int cell) {
+    if (this.solution == null) {
+      return -1;
+    }
+    return (this.solution.get(cell >>> 2) >>> ((cell & 3) << 1)) & 3;
+  }
+}
+
+// a board whose own state is kept outside the Java heap in direct buffers,
+// four bits a cell for the connectors, laid out as in a board file, and one
+// bit a cell for power
+// this does not take a game off the heap: a BitBoard is already under a byte a
+// cell, while an engine playing on either keeps its power tree, work queues and
+// hints on the heap, about 21 bytes a cell, 4 more in radius mode and 5 more
+// once it plays batches, and generating a board takes about 50 bytes a cell
+// there while it runs, so what it saves is a copy when its connectors are
+// written to a board file, which takes them in one bulk put
+// cells are numbered with ints like every other board, so it holds at most
+// Integer.MAX_VALUE cells, about 46000 x 46000
+class DirectBoard implements BoardModel {
+  int width;
+  int height;
+  ByteBuffer connectors;
+  // bit i % 8 of byte i / 8 is set when cell i is powered
+  ByteBuffer powered;
+  int poweredCount;
+
+  DirectBoard(int width, int height) {
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("a board can have at most " + Integer.MAX_VALUE
+          + " cells, not " + width + " x " + height);
+    }
+    this.width = width;
+    this.height = height;
+    int size = width * height;
+    this.connectors = ByteBuffer.allocateDirect(BoardFile.connectorBytes(size));
+    this.powered = ByteBuffer.allocateDirect((int) (((long) size + 7) >>> 3));
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int mask(int cell) {
+    return (this.connectors.get(cell >>> 1) >>> ((cell & 1) << 2)) & 0xF;
+  }
+
+  public void setMask(int cell, int mask) {
+    int shift = (cell & 1) << 2;
+    int pair = this.connectors.get(cell >>> 1);
+    this.connectors.put(cell >>> 1, (byte) ((pair & ~(0xF << shift)) | ((mask & 0xF) << shift)));
+  }
+
+  public boolean isPowered(int cell) {
+    return (this.powered.get(cell >>> 3) & (1 << (cell & 7))) != 0;
+  }
+
+  public void setPowered(int cell, boolean powered) {
+    if (powered != this.isPowered(cell)) {
+      this.powered.put(cell >>> 3, (byte) (this.powered.get(cell >>> 3) ^ (1 << (cell & 7))));
+      this.poweredCount += powered ? 1 : -1;
+    }
+  }
+
+  public int poweredCount() {
+    return this.poweredCount;
+  }
+}
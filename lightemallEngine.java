@@ -0,0 +1,1275 @@
+import java.util.Random;
+
+// the rules of Light Em All without any drawing: generating a board, rotating
+// tiles, moving the power station, power and winning
+// it runs on any BoardModel, a compact BitBoard when headless or the GamePieces
+// of a LightEmAll2 when there is a game to show, and nothing in this file needs
+// javalib, so it can be compiled and run on its own
+class LightEmAllEngine {
+  // how many rounds of rewiring a generated board gets to become unique before
+  // it is thrown away for a new one
+  static final int REPAIR_ROUNDS = 20;
+
+  BoardModel board;
+
+  // the current location of the power station,
+  // as well as its effective radius, diameter / 2 + 1 of the connected board,
+  // or 0 until the board has been seen fully connected
+  int powerRow;
+  int powerCol;
+  int radius;
+  // whether only the cells within radius of the station are powered
+  boolean radiusMode;
+
+  //field to keep track of the number of steps
+  int steps;
+
+  // the powered cells, kept as a tree rooted at the power station so that
+  // a rotation only updates the cells whose power changes
+  PowerGrid power;
+
+  // the reusable search state for bfs()
+  CellBfs search;
+
+  // the rotations made so far, for undo and redo
+  MoveJournal journal = new MoveJournal(MoveJournal.DEFAULT_CAPACITY);
+
+  // the quarter turns each cell is given in a batch, with LISTED set once the
+  // cell is in batchCells, and the cells given any, reused by every batch
+  static final int LISTED = 4;
+  // powering the whole board again costs about as much as updating the power
+  // around one rotated tile for every this many cells
+  static final int BATCH_CELLS_PER_TILE = 64;
+  byte[] batchTurns;
+  int[] batchCells;
+
+  // the cells whose connectors differ from the solved board, or null if the
+  // solution is not known
+  HintTracker hints;
+
+  // when set, every win check first scans the board to make sure its count of
+  // powered cells is right, for tests
+  static boolean verifyCounts;
+
+  // a new scrambled Kruskal board of the given size on a BitBoard,
+  // with the power station at the top left
+  LightEmAllEngine(int width, int height, Random rand) {
+    this(new BitBoard(width, height), rand);
+  }
+
+  // generates a scrambled Kruskal board with a single solution into the given
+  // board, which has no connectors yet, with the power station at the top left
+  LightEmAllEngine(BoardModel board, Random rand) {
+    this(board, rand, true);
+  }
+
+  // the same, but only rewiring the board until it has a single solution if
+  // unique is set, since that takes seconds once boards have tens of thousands
+  // of cells
+  LightEmAllEngine(BoardModel board, Random rand, boolean unique) {
+    if (unique) {
+      LightEmAllEngine.generateUnique(board, rand);
+    } else {
+      LightEmAllEngine.generate(board, rand);
+    }
+    this.board = board;
+    // the radius and the hints start out from the solved board
+    this.radius = this.effectiveRadius();
+    byte[] solved = LightEmAllEngine.masksOf(board);
+    LightEmAllEngine.scramble(board, rand);
+    this.power = new PowerGrid(board, board.index(0, 0));
+    this.setSolution(solved);
+  }
+
+  // plays on a board that is already laid out, with the power station at the given place
+  LightEmAllEngine(BoardModel board, int powerCol, int powerRow) {
+    this.board = board;
+    this.powerCol = powerCol;
+    this.powerRow = powerRow;
+    this.power = new PowerGrid(board, board.index(powerCol, powerRow));
+    if (this.power.reached == board.width() * board.height()) {
+      this.radius = this.effectiveRadius();
+    }
+  }
+
+  // EFFECT: connects the cells of the given board along a minimum spanning tree
+  // of randomly weighted edges, found with Kruskal's algorithm
+  static void generate(BoardModel board, Random rand) {
+    long start = GameMetrics.start();
+    int height = board.height();
+    UnionFind reps = new UnionFind(board.width() * height);
+    // every edge once, already grouped by weight
+    long[] edges = KruskalEdges.sortedEdges(board.width(), height, rand);
+    int accepted = 0;
+    int needed = board.width() * height - 1;
+
+    // a spanning tree is done as soon as it has one edge less than there are cells
+    for (int i = 0; i < edges.length && accepted < needed; i++) {
+      int from = KruskalEdges.from(edges[i]);
+      int to = KruskalEdges.to(edges[i]);
+
+      // union returns false when both ends already share a representative
+      if (reps.union(to, from)) {
+        accepted++;
+        // edges only go down or to the right, and the cell to the right is a
+        // column further on, which is also the next cell when there is one row
+        int dir = to == from + height ? BoardModel.RIGHT : BoardModel.BOTTOM;
+        board.setMask(from, board.mask(from) | dir);
+        board.setMask(to, board.mask(to) | BoardModel.opposite(dir));
+      }
+    }
+    GameMetrics.MST.stop(start);
+  }
+
+  // EFFECT: generates a Kruskal board into the given board, which has no connectors
+  // yet, and rewires it until it can only be won one way, so that steps can be
+  // compared fairly, starting over if the rewiring does not get there
+  static void generateUnique(BoardModel board, Random rand) {
+    LightEmAllEngine.generate(board, rand);
+    while (!PuzzleSolver.makeUnique(board, rand, REPAIR_ROUNDS)) {
+      for (int cell = 0; cell < board.width() * board.height(); cell++) {
+        board.setMask(cell, 0);
+      }
+      LightEmAllEngine.generate(board, rand);
+    }
+  }
+
+  // EFFECT: turns every cell of the given board a random number of times
+  static void scramble(BoardModel board, Random rand) {
+    for (int cell = 0; cell < board.width() * board.height(); cell++) {
+      // the bound is drawn again every time around, as the game always has
+      for (int i = 0; i < rand.nextInt(4); i++) {
+        board.setMask(cell, BoardModel.rotateMask(board.mask(cell)));
+      }
+    }
+  }
+
+  // EFFECT: rotates the tile at the given place a quarter turn, counts the step
+  // and updates the power around it
+  // returns false, doing nothing, if the place is off the board
+  boolean rotate(int col, int row) {
+    if (col < 0 || col >= this.board.width() || row < 0 || row >= this.board.height()) {
+      return false;
+    }
+    int cell = this.board.index(col, row);
+    this.turn(cell, 1);
+    //every time you rotate a piece it is a step that you take, the lower the steps the better
+    this.steps++;
+    this.journal.record(cell, 1);
+    return true;
+  }
+
+  // EFFECT: rotates the tile at cols[i], rows[i] turns[i] quarter turns for
+  // every i, then updates the power once for the whole batch
+  // turns on the same tile are added up first, and a tile is only touched once
+  // however often it appears
+  // a move counts a step for every quarter turn less its full circles, which
+  // change nothing, and goes in the journal the same way, so undoing it gives
+  // back every step it took
+  // throws an IllegalArgumentException, doing nothing, if a place is off the
+  // board or a number of turns is negative
+  void rotateAll(int[] cols, int[] rows, int[] turns) {
+    if (cols.length != rows.length || cols.length != turns.length) {
+      throw new IllegalArgumentException("a batch needs as many rows and turns as columns");
+    }
+    for (int i = 0; i < cols.length; i++) {
+      if (cols[i] < 0 || cols[i] >= this.board.width() || rows[i] < 0
+          || rows[i] >= this.board.height() || turns[i] < 0) {
+        throw new IllegalArgumentException("cannot turn " + cols[i] + ", " + rows[i] + " "
+            + turns[i] + " times");
+      }
+    }
+    int size = this.board.width() * this.board.height();
+    if (this.batchTurns == null || this.batchTurns.length != size) {
+      this.batchTurns = new byte[size];
+      this.batchCells = new int[size];
+    }
+
+    long start = GameMetrics.start();
+    int listed = 0;
+    for (int i = 0; i < cols.length; i++) {
+      int cell = this.board.index(cols[i], rows[i]);
+      int pending = this.batchTurns[cell];
+      if ((pending & LISTED) == 0) {
+        this.batchCells[listed++] = cell;
+      }
+      int quarters = turns[i] & 3;
+      this.batchTurns[cell] = (byte) (LISTED | ((pending + quarters) & 3));
+      this.steps += quarters;
+      if (quarters != 0) {
+        this.journal.record(cell, quarters);
+      }
+    }
+
+    // a few tiles on a big board are cheaper to update one by one than to
+    // power the whole board again
+    boolean oneByOne = (long) listed * BATCH_CELLS_PER_TILE < size;
+    int reached = this.power.reached;
+    boolean changed = false;
+    for (int i = 0; i < listed; i++) {
+      int cell = this.batchCells[i];
+      int oldMask = this.board.mask(cell);
+      int mask = oldMask;
+      for (int turn = 0; turn < (this.batchTurns[cell] & 3); turn++) {
+        mask = BoardModel.rotateMask(mask);
+      }
+      // the new connectors wait here for the power updates when they go one by one
+      this.batchTurns[cell] = (byte) mask;
+      if (mask != oldMask) {
+        changed = true;
+        if (!oneByOne) {
+          this.board.setMask(cell, mask);
+        }
+        if (this.hints != null) {
+          this.hints.update(cell, mask);
+        }
+      }
+    }
+    start = GameMetrics.ROTATE.lap(start);
+
+    // each update needs the board to have changed at its own tile only
+    for (int i = 0; i < listed; i++) {
+      int cell = this.batchCells[i];
+      int oldMask = this.board.mask(cell);
+      if (oneByOne && this.batchTurns[cell] != oldMask) {
+        this.board.setMask(cell, this.batchTurns[cell]);
+        this.power.rotated(cell, oldMask);
+      }
+      this.batchTurns[cell] = 0;
+    }
+    if (changed) {
+      if (!oneByOne) {
+        this.power.recompute();
+      }
+      this.connectionsChanged(reached);
+    }
+    GameMetrics.PROPAGATE.stop(start);
+  }
+
+  // EFFECT: takes back the last rotation that has not been taken back yet,
+  // along with its steps
+  // returns false if there is none
+  boolean undo() {
+    if (!this.journal.canUndo()) {
+      return false;
+    }
+    int move = this.journal.undo();
+    this.turn(MoveJournal.cell(move), 4 - MoveJournal.turns(move));
+    this.steps -= MoveJournal.turns(move);
+    return true;
+  }
+
+  // EFFECT: makes the last rotation taken back again
+  // returns false if there is none
+  boolean redo() {
+    if (!this.journal.canRedo()) {
+      return false;
+    }
+    int move = this.journal.redo();
+    this.turn(MoveJournal.cell(move), MoveJournal.turns(move));
+    this.steps += MoveJournal.turns(move);
+    return true;
+  }
+
+  // EFFECT: turns the given cell the given number of quarter turns at once and
+  // updates the power around it
+  void turn(int cell, int turns) {
+    int oldMask = this.board.mask(cell);
+    int mask = oldMask;
+    for (int i = 0; i < turns; i++) {
+      mask = BoardModel.rotateMask(mask);
+    }
+    int reached = this.power.reached;
+    long start = GameMetrics.start();
+    this.board.setMask(cell, mask);
+    if (this.hints != null) {
+      this.hints.update(cell, mask);
+    }
+    start = GameMetrics.ROTATE.lap(start);
+    this.power.rotated(cell, oldMask);
+    this.connectionsChanged(reached);
+    GameMetrics.PROPAGATE.stop(start);
+  }
+
+  // the connectors of every cell of the given board, by cell index
+  static byte[] masksOf(BoardModel board) {
+    byte[] masks = new byte[board.width() * board.height()];
+    for (int cell = 0; cell < masks.length; cell++) {
+      masks[cell] = (byte) board.mask(cell);
+    }
+    return masks;
+  }
+
+  // EFFECT: remembers the connectors each cell has when the board is solved,
+  // by cell index, and finds the cells that do not have them yet
+  void setSolution(byte[] solved) {
+    this.hints = new HintTracker(solved);
+    for (int cell = 0; cell < solved.length; cell++) {
+      this.hints.update(cell, this.board.mask(cell));
+    }
+  }
+
+  // the cell to rotate next to get closer to the solution, one that needs the
+  // fewest turns, or -1 if every cell is solved or the solution is not known
+  int hintCell() {
+    return this.hints == null ? -1 : this.hints.hintCell();
+  }
+
+  // how many quarter turns the hinted cell needs, 0 if there is no hint
+  int hintTurns() {
+    return this.hints == null ? 0 : this.hints.hintTurns();
+  }
+
+  // how many cells still need turning, or -1 if the solution is not known
+  int tilesRemaining() {
+    return this.hints == null ? -1 : this.hints.remaining();
+  }
+
+  // EFFECT: moves the power station one tile along a wire, if there is one that way
+  // returns whether it moved
+  boolean movePowerStation(int changeCol, int changeRow) {
+    int dir;
+    if (changeCol == -1 && changeRow == 0) {
+      dir = BoardModel.LEFT;
+    } else if (changeCol == 1 && changeRow == 0) {
+      dir = BoardModel.RIGHT;
+    } else if (changeCol == 0 && changeRow == -1) {
+      dir = BoardModel.TOP;
+    } else if (changeCol == 0 && changeRow == 1) {
+      dir = BoardModel.BOTTOM;
+    } else {
+      return false;
+    }
+
+    int station = this.board.index(this.powerCol, this.powerRow);
+    if (!this.board.linked(station, dir)) {
+      return false;
+    }
+    this.powerCol += changeCol;
+    this.powerRow += changeRow;
+    // the same cells stay powered, they are just fed from the new station
+    this.power.moveStation(this.board.neighbor(station, dir));
+    return true;
+  }
+
+  // EFFECT: powers exactly the cells connected to the power station within the
+  // limit, searching the power tree again from scratch, so the tree and the
+  // powered cells stay the same thing
+  void bfs() {
+    int reached = this.power.reached;
+    this.power.station = this.board.index(this.powerCol, this.powerRow);
+    this.power.recompute();
+    this.connectionsChanged(reached);
+  }
+
+  // EFFECT: powers exactly the cells connected to the power station, from scratch,
+  // and finds the cells that differ from the solution again, for when the board
+  // was changed other than through this engine
+  void repower() {
+    this.bfs();
+    if (this.hints != null) {
+      this.setSolution(this.hints.solved);
+    }
+  }
+
+  // EFFECT: recomputes the radius if the station has just come to reach every
+  // cell, having reached the given number of cells before
+  void connectionsChanged(int reachedBefore) {
+    int size = this.board.width() * this.board.height();
+    if (this.power.reached == size && reachedBefore < size) {
+      this.radius = this.effectiveRadius();
+      if (this.radiusMode) {
+        this.power.limit(this.radius);
+      }
+    }
+  }
+
+  // EFFECT: turns radius mode on or off, where only the cells whose wires run
+  // within radius tiles of the station are powered
+  void setRadiusMode(boolean on) {
+    this.radiusMode = on;
+    this.power.limit(on && this.radius > 0 ? this.radius : PowerGrid.UNLIMITED);
+  }
+
+  // diameter / 2 + 1 of the wires connected to the top left cell, the diameter
+  // being found by a breadth-first search from there and a second one from the
+  // last cell the first one reached
+  int effectiveRadius() {
+    int size = this.board.width() * this.board.height();
+    if (this.search == null || this.search.queue.length != size) {
+      this.search = new CellBfs(size);
+    }
+    return LightEmAllEngine.effectiveRadius(this.board, this.search);
+  }
+
+  // the same for any board, searching with the given CellBfs
+  static int effectiveRadius(BoardModel board, CellBfs search) {
+    int far = search.farthest(board, 0);
+    search.farthest(board, far);
+    return search.depth / 2 + 1;
+  }
+
+  boolean isPowered(int col, int row) {
+    return this.board.isPowered(this.board.index(col, row));
+  }
+
+  // checks if the player has won yet by checking if all the cells are powered up,
+  // which the board keeps count of as they change
+  boolean checkWinCondition() {
+    if (LightEmAllEngine.verifyCounts) {
+      this.verifyPoweredCount();
+    }
+    long start = GameMetrics.start();
+    boolean won = this.board.poweredCount() == this.board.width() * this.board.height();
+    GameMetrics.WIN_CHECK.stop(start);
+    return won;
+  }
+
+  // EFFECT: throws an IllegalStateException if the board's count of powered cells
+  // is not how many a full scan finds
+  void verifyPoweredCount() {
+    int powered = 0;
+    for (int cell = 0; cell < this.board.width() * this.board.height(); cell++) {
+      if (this.board.isPowered(cell)) {
+        powered++;
+      }
+    }
+    if (powered != this.board.poweredCount()) {
+      throw new IllegalStateException("the board counts " + this.board.poweredCount()
+          + " powered cells but has " + powered);
+    }
+  }
+}
+
+// the cells of a board whose connectors differ from the solved board, in three
+// lists by how many quarter turns they need, so that a hint and the count of
+// cells left are both read straight off without looking at the board
+class HintTracker {
+  // the connectors of every cell on the solved board
+  byte[] solved;
+  // the turns every cell needs, 0 once it is solved
+  byte[] need;
+  // where each cell that needs turns is in the list for its number of turns
+  int[] position;
+  // the cells that need 1, 2 and 3 turns, at lists[turns - 1]
+  int[][] lists = new int[3][16];
+  int[] sizes = new int[3];
+  int remaining;
+
+  HintTracker(byte[] solved) {
+    this.solved = solved;
+    this.need = new byte[solved.length];
+    this.position = new int[solved.length];
+  }
+
+  // the fewest quarter turns that take mask to the connectors the given cell
+  // has when solved, 0 if it has them already
+  int turnsNeeded(int cell, int mask) {
+    int turns = 0;
+    while (turns < 4 && mask != this.solved[cell]) {
+      mask = BoardModel.rotateMask(mask);
+      turns++;
+    }
+    // a piece that cannot reach its solved connectors is never hinted
+    return turns % 4;
+  }
+
+  // EFFECT: files the given cell under the turns it needs now that it has the
+  // given connectors
+  void update(int cell, int mask) {
+    int turns = this.turnsNeeded(cell, mask);
+    int old = this.need[cell];
+    if (turns == old) {
+      return;
+    }
+    if (old != 0) {
+      // the last cell of the old list takes this one's place
+      int[] list = this.lists[old - 1];
+      int last = list[--this.sizes[old - 1]];
+      list[this.position[cell]] = last;
+      this.position[last] = this.position[cell];
+      this.remaining--;
+    }
+    if (turns != 0) {
+      if (this.sizes[turns - 1] == this.lists[turns - 1].length) {
+        this.lists[turns - 1] = java.util.Arrays.copyOf(this.lists[turns - 1],
+            this.lists[turns - 1].length * 2);
+      }
+      this.position[cell] = this.sizes[turns - 1];
+      this.lists[turns - 1][this.sizes[turns - 1]++] = cell;
+      this.remaining++;
+    }
+    this.need[cell] = (byte) turns;
+  }
+
+  int remaining() {
+    return this.remaining;
+  }
+
+  // the most recently listed cell that needs the fewest turns, or -1
+  int hintCell() {
+    for (int turns = 1; turns <= 3; turns++) {
+      if (this.sizes[turns - 1] > 0) {
+        return this.lists[turns - 1][this.sizes[turns - 1] - 1];
+      }
+    }
+    return -1;
+  }
+
+  // how many turns the hinted cell needs, 0 if there is none
+  int hintTurns() {
+    int cell = this.hintCell();
+    return cell < 0 ? 0 : this.need[cell];
+  }
+}
+
+// the rotations of a game in the order they were made, each packed into an int
+// as (cell << 2) | quarter turns, with a cursor between the moves that are
+// made and the ones that were taken back
+// it is a ring: once capacity moves are kept the oldest is forgotten, so a
+// session of any length takes bounded memory
+class MoveJournal {
+  // about a million moves, 4 megabytes
+  static final int DEFAULT_CAPACITY = 1 << 20;
+
+  // the moves, oldest at start, with room for a power of two of them
+  int[] moves;
+  int start;
+  // how many moves are kept, and how many of those are made
+  int size;
+  int done;
+  // the most moves kept, a power of two
+  int capacity;
+
+  MoveJournal(int capacity) {
+    this.capacity = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+    this.moves = new int[Math.min(this.capacity, 16)];
+  }
+
+  static int encode(int cell, int turns) {
+    return (cell << 2) | (turns & 3);
+  }
+
+  static int cell(int move) {
+    return move >>> 2;
+  }
+
+  static int turns(int move) {
+    return move & 3;
+  }
+
+  // EFFECT: adds a move after the ones made, forgetting the ones taken back,
+  // and the oldest if there is no room
+  void record(int cell, int turns) {
+    this.size = this.done;
+    if (this.size == this.capacity) {
+      this.start = (this.start + 1) & (this.capacity - 1);
+      this.size--;
+      this.done--;
+    } else if (this.size == this.moves.length) {
+      this.grow();
+    }
+    this.moves[(this.start + this.size) & (this.moves.length - 1)] = encode(cell, turns);
+    this.size++;
+    this.done++;
+  }
+
+  // EFFECT: doubles the room for moves, putting the oldest first
+  void grow() {
+    int[] bigger = new int[this.moves.length * 2];
+    for (int i = 0; i < this.size; i++) {
+      bigger[i] = this.moves[(this.start + i) & (this.moves.length - 1)];
+    }
+    this.moves = bigger;
+    this.start = 0;
+  }
+
+  boolean canUndo() {
+    return this.done > 0;
+  }
+
+  boolean canRedo() {
+    return this.done < this.size;
+  }
+
+  // EFFECT: moves the cursor back over the last move made
+  // returns that move
+  int undo() {
+    this.done--;
+    return this.moves[(this.start + this.done) & (this.moves.length - 1)];
+  }
+
+  // EFFECT: moves the cursor forward over the next move taken back
+  // returns that move
+  int redo() {
+    int move = this.moves[(this.start + this.done) & (this.moves.length - 1)];
+    this.done++;
+    return move;
+  }
+
+  // EFFECT: forgets every move
+  void clear() {
+    this.start = 0;
+    this.size = 0;
+    this.done = 0;
+  }
+
+  // the kept moves as bytes: how many there are, how many are made, then
+  // the moves oldest first, all big-endian ints
+  byte[] toBytes() {
+    java.nio.ByteBuffer out = java.nio.ByteBuffer.allocate(8 + 4 * this.size);
+    out.putInt(this.size);
+    out.putInt(this.done);
+    java.nio.IntBuffer ints = out.asIntBuffer();
+    int first = Math.min(this.size, this.moves.length - this.start);
+    ints.put(this.moves, this.start, first);
+    ints.put(this.moves, 0, this.size - first);
+    return out.array();
+  }
+
+  // a journal with the moves in the given bytes, from toBytes, keeping at most
+  // capacity of the newest ones
+  static MoveJournal fromBytes(byte[] bytes, int capacity) {
+    java.nio.ByteBuffer in = java.nio.ByteBuffer.wrap(bytes);
+    int size = in.getInt();
+    int done = in.getInt();
+    MoveJournal journal = new MoveJournal(capacity);
+    int skip = Math.max(0, size - journal.capacity);
+    journal.moves = new int[Math.max(Integer.highestOneBit(Math.max(size - skip, 1) * 2 - 1),
+        journal.moves.length)];
+    in.position(8 + 4 * skip);
+    in.asIntBuffer().get(journal.moves, 0, size - skip);
+    journal.size = size - skip;
+    journal.done = Math.max(0, done - skip);
+    return journal;
+  }
+}
+
+// the edges between neighboring cells of a board, packed into longs as
+// (weight << 58) | (fromIndex << 29) | toIndex and ordered with a counting sort
+class KruskalEdges {
+  // edge weights are drawn from [0, MAX_WEIGHT)
+  static final int MAX_WEIGHT = 40;
+  static final int INDEX_BITS = 29;
+  static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+  // generates every edge of a width x height board once, going down and to the right
+  // from each cell, with a random weight, and returns them sorted by weight
+  // ties keep the order they were generated in
+  static long[] sortedEdges(int width, int height, Random rand) {
+    int count = (width - 1) * height + width * (height - 1);
+    long[] edges = new long[Math.max(count, 0)];
+    // bucketStart[w + 1] counts the edges of weight w, then becomes where weight w + 1 starts
+    int[] bucketStart = new int[MAX_WEIGHT + 1];
+    int n = 0;
+
+    for (int col = 0; col < width; col++) {
+      for (int row = 0; row < height; row++) {
+        int from = col * height + row;
+        if (row + 1 < height) {
+          int w = rand.nextInt(MAX_WEIGHT);
+          bucketStart[w + 1]++;
+          edges[n++] = pack(w, from, from + 1);
+        }
+        if (col + 1 < width) {
+          int w = rand.nextInt(MAX_WEIGHT);
+          bucketStart[w + 1]++;
+          edges[n++] = pack(w, from, from + height);
+        }
+      }
+    }
+
+    for (int w = 1; w <= MAX_WEIGHT; w++) {
+      bucketStart[w] += bucketStart[w - 1];
+    }
+
+    long[] sorted = new long[edges.length];
+    for (long e : edges) {
+      sorted[bucketStart[weight(e)]++] = e;
+    }
+    return sorted;
+  }
+
+  // packs an edge into a single long, weights sort before indices
+  static long pack(int weight, int from, int to) {
+    return ((long) weight << (2 * INDEX_BITS)) | ((long) from << INDEX_BITS) | to;
+  }
+
+  static int weight(long edge) {
+    return (int) (edge >>> (2 * INDEX_BITS));
+  }
+
+  static int from(long edge) {
+    return (int) ((edge >>> INDEX_BITS) & INDEX_MASK);
+  }
+
+  static int to(long edge) {
+    return (int) (edge & INDEX_MASK);
+  }
+}
+
+// a board of width x height cells, numbered col * height + row, where each cell
+// has a 4-bit mask of connectors and may be powered
+interface BoardModel {
+  // connector bits, in clockwise order so that a rotation is a bit rotation
+  int LEFT = 1;
+  int TOP = 2;
+  int RIGHT = 4;
+  int BOTTOM = 8;
+
+  int width();
+
+  int height();
+
+  // the connectors of the given cell
+  int mask(int cell);
+
+  // EFFECT: sets the connectors of the given cell
+  void setMask(int cell, int mask);
+
+  boolean isPowered(int cell);
+
+  // EFFECT: sets whether the given cell is powered, keeping count
+  void setPowered(int cell, boolean powered);
+
+  // how many cells are powered, kept up to date by setPowered
+  int poweredCount();
+
+  // the index of the cell at the given column and row
+  default int index(int col, int row) {
+    return col * this.height() + row;
+  }
+
+  // the neighbor of the given cell across the given connector bit, or -1 off the board
+  default int neighbor(int cell, int dir) {
+    int height = this.height();
+    if (dir == LEFT) {
+      return cell >= height ? cell - height : -1;
+    } else if (dir == RIGHT) {
+      return cell + height < this.width() * height ? cell + height : -1;
+    } else if (dir == TOP) {
+      return cell % height != 0 ? cell - 1 : -1;
+    } else {
+      return (cell + 1) % height != 0 ? cell + 1 : -1;
+    }
+  }
+
+  // whether the given cell and its neighbor across the given connector bit
+  // both have a wire to each other
+  default boolean linked(int cell, int dir) {
+    int other = this.neighbor(cell, dir);
+    return other >= 0 && (this.mask(cell) & dir) != 0
+        && (this.mask(other) & BoardModel.opposite(dir)) != 0;
+  }
+
+  // the connectors of a mask after a clockwise quarter turn, same as GamePiece.rotate
+  static int rotateMask(int mask) {
+    return ((mask << 1) | (mask >>> 3)) & 0xF;
+  }
+
+  // the connector bit facing the given one
+  static int opposite(int dir) {
+    return BoardModel.rotateMask(BoardModel.rotateMask(dir));
+  }
+}
+
+// the neighbors of every cell of a board, four ints a cell, one for each
+// connector bit in the order LEFT, TOP, RIGHT, BOTTOM, with -1 off the board,
+// so finding a neighbor is one array read with nothing to check
+// at 16 bytes a cell it is for boards that already take that much, not for a
+// BitBoard
+class NeighborTable {
+  static int[] build(int width, int height) {
+    int size = width * height;
+    int[] table = new int[size * 4];
+    for (int cell = 0; cell < size; cell++) {
+      int row = cell % height;
+      table[slot(cell, BoardModel.LEFT)] = cell >= height ? cell - height : -1;
+      table[slot(cell, BoardModel.TOP)] = row > 0 ? cell - 1 : -1;
+      table[slot(cell, BoardModel.RIGHT)] = cell + height < size ? cell + height : -1;
+      table[slot(cell, BoardModel.BOTTOM)] = row < height - 1 ? cell + 1 : -1;
+    }
+    return table;
+  }
+
+  // where the neighbor of the given cell across the given connector bit is kept
+  static int slot(int cell, int dir) {
+    return (cell << 2) | Integer.numberOfTrailingZeros(dir);
+  }
+}
+
+// a compact board that keeps each cell's connectors as a nibble, sixteen cells
+// to a long, and the powered cells as a bitset
+class BitBoard implements BoardModel {
+  int width;
+  int height;
+  // the connectors of cell i are bits 4 * (i % 16) to 4 * (i % 16) + 3 of connectors[i / 16]
+  long[] connectors;
+  // bit i % 64 of powered[i / 64] is set when cell i is powered
+  long[] powered;
+  int poweredCount;
+  // the cell the power station is on
+  int station;
+
+  BitBoard(int width, int height) {
+    this.width = width;
+    this.height = height;
+    int size = width * height;
+    this.connectors = new long[(size + 15) >>> 4];
+    this.powered = new long[(size + 63) >>> 6];
+  }
+
+  // copies the connectors and power of any other board
+  static BitBoard copyOf(BoardModel other) {
+    BitBoard bits = new BitBoard(other.width(), other.height());
+    for (int cell = 0; cell < other.width() * other.height(); cell++) {
+      bits.setMask(cell, other.mask(cell));
+      bits.setPowered(cell, other.isPowered(cell));
+    }
+    return bits;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int mask(int cell) {
+    return (int) (this.connectors[cell >>> 4] >>> ((cell & 15) << 2)) & 0xF;
+  }
+
+  public void setMask(int cell, int mask) {
+    int shift = (cell & 15) << 2;
+    this.connectors[cell >>> 4] = (this.connectors[cell >>> 4] & ~(0xFL << shift))
+        | ((long) (mask & 0xF) << shift);
+  }
+
+  public boolean isPowered(int cell) {
+    return (this.powered[cell >>> 6] & (1L << cell)) != 0;
+  }
+
+  public void setPowered(int cell, boolean powered) {
+    if (powered != this.isPowered(cell)) {
+      this.powered[cell >>> 6] ^= 1L << cell;
+      this.poweredCount += powered ? 1 : -1;
+    }
+  }
+
+  public int poweredCount() {
+    return this.poweredCount;
+  }
+
+  // EFFECT: rotates the given cell a quarter turn clockwise
+  public void rotate(int cell) {
+    this.setMask(cell, BoardModel.rotateMask(this.mask(cell)));
+  }
+}
+
+// keeps the powered cells of a board as a spanning tree rooted at the power
+// station, so that a rotation only revisits cells whose power can change:
+// cells cut off from the tree lose power, then the cut and the rotated cell's
+// new links are searched for a way back to the station
+class PowerGrid {
+  // the limit for when every connected cell is powered
+  static final int UNLIMITED = Integer.MAX_VALUE;
+
+  BoardModel board;
+  int station;
+  // the cell each connected cell gets its power from, the station points to
+  // itself and cells that are not connected hold -1
+  int[] parent;
+  // how many wires each connected cell is from the station along the shortest
+  // path, with the tree following those paths, up to date for every connected
+  // cell while there is a limit, and null while there is none
+  int[] depth;
+  // connected cells deeper than this are not powered
+  int limit = UNLIMITED;
+  // how many cells are connected to the station
+  int reached;
+  // work lists reused by every update, each cell is in them at most once
+  int[] queue;
+  int[] cut;
+  // bit i % 64 of queued[i / 64] is set while cell i waits in shorten(), null
+  // while there is no limit
+  long[] queued;
+
+  PowerGrid(BoardModel board, int station) {
+    int size = board.width() * board.height();
+    this.board = board;
+    this.station = station;
+    this.parent = new int[size];
+    this.queue = new int[size];
+    this.cut = new int[size];
+    this.recompute();
+  }
+
+  // EFFECT: powers exactly the cells connected to the station, from scratch
+  void recompute() {
+    for (int cell = 0; cell < this.parent.length; cell++) {
+      this.parent[cell] = -1;
+      this.board.setPowered(cell, false);
+    }
+    this.parent[this.station] = this.station;
+    if (this.depth != null) {
+      this.depth[this.station] = 0;
+    }
+    this.board.setPowered(this.station, true);
+    this.reached = 1;
+    this.queue[0] = this.station;
+    this.spread(1);
+  }
+
+  // EFFECT: powers only the connected cells at most the given depth from the
+  // station from now on, UNLIMITED for all of them
+  // the tree is searched again breadth first, since without a limit it is only
+  // kept connected and not along the shortest paths
+  // the depths are only kept while there is a limit, so most games never
+  // allocate them
+  void limit(int limit) {
+    this.limit = limit;
+    if (limit == UNLIMITED) {
+      this.depth = null;
+      this.queued = null;
+    } else if (this.depth == null) {
+      this.depth = new int[this.parent.length];
+      this.queued = new long[(this.parent.length + 63) >>> 6];
+    }
+    this.recompute();
+  }
+
+  // EFFECT: updates power after the given cell's connectors changed from oldMask
+  void rotated(int cell, int oldMask) {
+    int newMask = this.board.mask(cell);
+    int cutCount = 0;
+
+    // a lost tree link cuts the subtree below it off from the station
+    for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+      int other = this.board.neighbor(cell, dir);
+      if (other >= 0 && (oldMask & dir) != 0 && (newMask & dir) == 0
+          && (this.board.mask(other) & BoardModel.opposite(dir)) != 0) {
+        if (this.parent[other] == cell) {
+          cutCount = this.cutSubtree(other, cutCount);
+        } else if (this.parent[cell] == other) {
+          cutCount = this.cutSubtree(cell, cutCount);
+        }
+      }
+    }
+
+    // cut cells next to a powered cell take power from it
+    int count = 0;
+    for (int i = 0; i < cutCount; i++) {
+      int lost = this.cut[i];
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM && this.parent[lost] == -1;
+          dir <<= 1) {
+        if (this.board.linked(lost, dir) && this.parent[this.board.neighbor(lost, dir)] != -1) {
+          count = this.power(lost, this.board.neighbor(lost, dir), count);
+        }
+      }
+    }
+
+    // a new link joins the rotated cell to a neighbor, power flows whichever way it can
+    for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+      int other = this.board.neighbor(cell, dir);
+      if ((oldMask & dir) == 0 && this.board.linked(cell, dir)) {
+        if (this.parent[cell] != -1 && this.parent[other] == -1) {
+          count = this.power(other, cell, count);
+        } else if (this.parent[other] != -1 && this.parent[cell] == -1) {
+          count = this.power(cell, other, count);
+        }
+      }
+    }
+
+    count = this.spread(count);
+
+    // with a limit the depths have to be the shortest: the newly connected
+    // cells may have been reached the long way round, and a new link between
+    // two connected cells can make a shortcut for either side
+    if (this.limit != UNLIMITED) {
+      this.shorten(count);
+      if (this.parent[cell] != -1) {
+        count = 0;
+        this.queue[count++] = cell;
+        for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+          if ((oldMask & dir) == 0 && this.board.linked(cell, dir)) {
+            this.queue[count++] = this.board.neighbor(cell, dir);
+          }
+        }
+        this.shorten(count);
+      }
+    }
+  }
+
+  // EFFECT: lowers the depth of every connected cell that is reached by a shorter
+  // path than its tree path, starting from the first count queued cells, which
+  // may be too deep or have a new shortcut next to them, re-parenting each one
+  // onto the shorter path and setting its power
+  // every other connected cell must already have its shortest depth, except
+  // where one of the queued cells gives it a shorter one
+  // the queue is used as a ring, each cell waiting in it at most once, so the
+  // first count cells may repeat but must fit in it
+  void shorten(int count) {
+    int size = this.queue.length;
+    // drop the repeats
+    int tail = 0;
+    for (int i = 0; i < count; i++) {
+      int cell = this.queue[i];
+      if ((this.queued[cell >>> 6] & (1L << cell)) == 0) {
+        this.queued[cell >>> 6] |= 1L << cell;
+        this.queue[tail++] = cell;
+      }
+    }
+    int waiting = tail;
+    int head = 0;
+    tail %= size;
+    while (waiting > 0) {
+      int cell = this.queue[head];
+      head = head + 1 == size ? 0 : head + 1;
+      waiting--;
+      this.queued[cell >>> 6] &= ~(1L << cell);
+
+      // take the shallowest neighbor as the parent
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        int other = this.board.neighbor(cell, dir);
+        if (cell != this.station && this.board.linked(cell, dir) && this.parent[other] != -1
+            && this.depth[other] + 1 < this.depth[cell]) {
+          this.parent[cell] = other;
+          this.depth[cell] = this.depth[other] + 1;
+        }
+      }
+      this.board.setPowered(cell, this.depth[cell] <= this.limit);
+
+      // and be the parent of any neighbor that is now closer through this cell
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        int other = this.board.neighbor(cell, dir);
+        if (this.board.linked(cell, dir) && this.parent[other] != -1
+            && this.depth[cell] + 1 < this.depth[other]) {
+          this.parent[other] = cell;
+          this.depth[other] = this.depth[cell] + 1;
+          if ((this.queued[other >>> 6] & (1L << other)) == 0) {
+            this.queued[other >>> 6] |= 1L << other;
+            this.queue[tail] = other;
+            tail = tail + 1 == size ? 0 : tail + 1;
+            waiting++;
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: moves the station onto another connected cell, the connected cells do
+  // not change but the tree is re-rooted by reversing the path from the new
+  // station, and with a limit the depths and power are walked again
+  void moveStation(int newStation) {
+    if (this.parent[newStation] == -1) {
+      this.station = newStation;
+      this.recompute();
+      return;
+    }
+    int child = newStation;
+    int next = this.parent[child];
+    this.parent[child] = child;
+    while (next != child) {
+      int up = this.parent[next];
+      this.parent[next] = child;
+      child = next;
+      next = up;
+    }
+    this.station = newStation;
+    // the reversed tree is not along the shortest paths from the new station
+    if (this.limit != UNLIMITED) {
+      this.recompute();
+    }
+  }
+
+  // EFFECT: unpowers the given cell and every cell that gets its power through it,
+  // adding them to the cut list after the first count entries
+  // returns the new length of the cut list
+  int cutSubtree(int root, int count) {
+    int head = count;
+    this.parent[root] = -1;
+    this.board.setPowered(root, false);
+    this.reached--;
+    this.cut[count++] = root;
+    while (head < count) {
+      int cell = this.cut[head++];
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        int child = this.board.neighbor(cell, dir);
+        if (child >= 0 && this.parent[child] == cell) {
+          this.parent[child] = -1;
+          this.board.setPowered(child, false);
+          this.reached--;
+          this.cut[count++] = child;
+        }
+      }
+    }
+    return count;
+  }
+
+  // EFFECT: connects the given cell through the given connected neighbor, powers
+  // it if it is within the limit, and queues it
+  // returns the new length of the queue
+  int power(int cell, int from, int count) {
+    this.parent[cell] = from;
+    if (this.depth == null) {
+      this.board.setPowered(cell, true);
+    } else {
+      this.depth[cell] = this.depth[from] + 1;
+      this.board.setPowered(cell, this.depth[cell] <= this.limit);
+    }
+    this.reached++;
+    this.queue[count] = cell;
+    return count + 1;
+  }
+
+  // EFFECT: connects every cell linked to the first count queued cells, breadth
+  // first, powering the ones within the limit
+  // the search keeps going past the limit so the tree always knows which
+  // cells are connected, only the power stops
+  // returns how many cells are queued, the ones that were and the ones connected
+  int spread(int count) {
+    int head = 0;
+    while (head < count) {
+      int cell = this.queue[head++];
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        if (this.board.linked(cell, dir) && this.parent[this.board.neighbor(cell, dir)] == -1) {
+          count = this.power(this.board.neighbor(cell, dir), cell, count);
+        }
+      }
+    }
+    return count;
+  }
+}
+
+// a breadth-first search over cell indices that allocates nothing per run:
+// the queue and the visited bitset are made once and reused
+class CellBfs {
+  // cells are marked visited when queued, so each is queued at most once
+  // and the queue never needs more room than there are cells
+  int[] queue;
+  // bit i % 64 of visited[i / 64] is set once cell i is queued
+  long[] visited;
+  // how many wires from the start the last cell farthest() found is
+  int depth;
+
+  CellBfs(int size) {
+    this.queue = new int[size];
+    this.visited = new long[(size + 63) >>> 6];
+  }
+
+  // EFFECT: powers every cell connected to the given start cell
+  // returns how many cells that is
+  int run(BoardModel board, int start) {
+    int head = 0;
+    int tail = 0;
+    this.queue[tail++] = start;
+    this.visited[start >>> 6] |= 1L << start;
+
+    while (head < tail) {
+      int cell = this.queue[head++];
+      board.setPowered(cell, true);
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        if (board.linked(cell, dir)) {
+          int next = board.neighbor(cell, dir);
+          if ((this.visited[next >>> 6] & (1L << next)) == 0) {
+            this.visited[next >>> 6] |= 1L << next;
+            this.queue[tail++] = next;
+          }
+        }
+      }
+    }
+
+    // the queue holds exactly the visited cells, so only their bits need clearing
+    for (int i = 0; i < tail; i++) {
+      this.visited[this.queue[i] >>> 6] = 0;
+    }
+    return tail;
+  }
+
+  // the last cell a breadth-first search from the given start cell reaches,
+  // one of the farthest from it, without changing any power
+  // EFFECT: sets depth to how many wires away it is
+  int farthest(BoardModel board, int start) {
+    int head = 0;
+    int tail = 0;
+    this.queue[tail++] = start;
+    this.visited[start >>> 6] |= 1L << start;
+    this.depth = -1;
+
+    // one level at a time, so the depth is just how many levels there were
+    while (head < tail) {
+      int levelEnd = tail;
+      this.depth++;
+      while (head < levelEnd) {
+        int cell = this.queue[head++];
+        for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+          if (board.linked(cell, dir)) {
+            int next = board.neighbor(cell, dir);
+            if ((this.visited[next >>> 6] & (1L << next)) == 0) {
+              this.visited[next >>> 6] |= 1L << next;
+              this.queue[tail++] = next;
+            }
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < tail; i++) {
+      this.visited[this.queue[i] >>> 6] = 0;
+    }
+    return this.queue[tail - 1];
+  }
+}
+
+// a disjoint-set forest over cell indices (col * height + row), used by
+// Kruskal's algorithm to tell whether two cells are already connected
+class UnionFind {
+  // the parent of every cell, a cell is a representative if it is its own parent
+  int[] parent;
+  // an upper bound on the height of the tree under each representative
+  int[] rank;
+
+  UnionFind(int size) {
+    this.parent = new int[size];
+    this.rank = new int[size];
+    for (int i = 0; i < size; i++) {
+      this.parent[i] = i;
+    }
+  }
+
+  // finds the top level representative of the given cell
+  // EFFECT: points every cell on the way directly at the representative
+  int find(int cell) {
+    int root = cell;
+    while (this.parent[root] != root) {
+      root = this.parent[root];
+    }
+    while (this.parent[cell] != root) {
+      int next = this.parent[cell];
+      this.parent[cell] = root;
+      cell = next;
+    }
+    return root;
+  }
+
+  // EFFECT: joins the sets of the two given cells, hanging the shorter tree under the taller one
+  // returns false if the cells were already in the same set
+  boolean union(int a, int b) {
+    int rootA = this.find(a);
+    int rootB = this.find(b);
+    if (rootA == rootB) {
+      return false;
+    }
+    if (this.rank[rootA] < this.rank[rootB]) {
+      this.parent[rootA] = rootB;
+    } else if (this.rank[rootA] > this.rank[rootB]) {
+      this.parent[rootB] = rootA;
+    } else {
+      this.parent[rootB] = rootA;
+      this.rank[rootA]++;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,339 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// how long the event handlers of the game and the phases inside them take,
+// one latency histogram each
+// timing is off unless turned on, by setEnabled, the Enabled attribute of the
+// LightEmAll:type=Metrics MBean, or -Dlightemall.metrics=true, and while it is
+// off a timed section costs one read of a flag
+//
+// a timed section looks like:
+//   long start = GameMetrics.start();
+//   ...
+//   GameMetrics.ROTATE.stop(start);
+class GameMetrics {
+  // what start() returns while timing is off, which stop() ignores
+  static final long OFF = Long.MIN_VALUE;
+
+  static volatile boolean enabled = Boolean.getBoolean("lightemall.metrics");
+
+  // the event handlers
+  static final LatencyHistogram MOUSE_CLICKED = new LatencyHistogram("onMouseClicked");
+  static final LatencyHistogram KEY_EVENT = new LatencyHistogram("onKeyEvent");
+  static final LatencyHistogram BFS = new LatencyHistogram("bfs");
+  static final LatencyHistogram MAKE_SCENE = new LatencyHistogram("makeScene");
+  static final LatencyHistogram MST = new LatencyHistogram("MST");
+  // the phases inside them
+  static final LatencyHistogram ROTATE = new LatencyHistogram("rotate");
+  static final LatencyHistogram PROPAGATE = new LatencyHistogram("propagate");
+  static final LatencyHistogram WIN_CHECK = new LatencyHistogram("winCheck");
+  static final LatencyHistogram RENDER = new LatencyHistogram("render");
+
+  static final LatencyHistogram[] ALL = {MOUSE_CLICKED, KEY_EVENT, BFS, MAKE_SCENE, MST,
+      ROTATE, PROPAGATE, WIN_CHECK, RENDER};
+
+  // the periodic dump, if one is running
+  static ScheduledExecutorService dumper;
+
+  // the time a timed section starts at, or OFF
+  static long start() {
+    return GameMetrics.enabled ? System.nanoTime() : OFF;
+  }
+
+  // EFFECT: turns timing on or off
+  static void setEnabled(boolean on) {
+    GameMetrics.enabled = on;
+  }
+
+  // EFFECT: forgets everything recorded so far
+  static void reset() {
+    for (LatencyHistogram histogram : ALL) {
+      histogram.reset();
+    }
+  }
+
+  // a table of every histogram, times in microseconds
+  static String dump() {
+    StringBuilder out = new StringBuilder(String.format(
+        "%-16s %10s %10s %10s %10s %10s %10s %10s%n", "latency (us)", "count", "mean", "p50",
+        "p90", "p99", "p99.9", "max"));
+    for (LatencyHistogram histogram : ALL) {
+      out.append(String.format("%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+          histogram.name, histogram.count(), histogram.mean() / 1e3,
+          histogram.valueAtPercentile(50) / 1e3, histogram.valueAtPercentile(90) / 1e3,
+          histogram.valueAtPercentile(99) / 1e3, histogram.valueAtPercentile(99.9) / 1e3,
+          histogram.max() / 1e3));
+    }
+    return out.toString();
+  }
+
+  // EFFECT: prints the table to the given stream every period milliseconds, on a
+  // daemon thread, until stopDump
+  static synchronized void startDump(PrintStream stream, long period) {
+    GameMetrics.stopDump();
+    GameMetrics.dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "lightemall-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    GameMetrics.dumper.scheduleAtFixedRate(() -> stream.print(GameMetrics.dump()), period,
+        period, TimeUnit.MILLISECONDS);
+  }
+
+  // EFFECT: stops the periodic dump, if there is one
+  static synchronized void stopDump() {
+    if (GameMetrics.dumper != null) {
+      GameMetrics.dumper.shutdownNow();
+      GameMetrics.dumper = null;
+    }
+  }
+
+  // EFFECT: registers LightEmAll:type=Metrics and one
+  // LightEmAll:type=Latency,name=... MBean per histogram with the platform
+  // MBean server, unless they are registered already
+  static synchronized void registerMBeans() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName control = new ObjectName("LightEmAll:type=Metrics");
+      if (!server.isRegistered(control)) {
+        server.registerMBean(new MetricsBean(null), control);
+        for (LatencyHistogram histogram : ALL) {
+          server.registerMBean(new MetricsBean(histogram),
+              new ObjectName("LightEmAll:type=Latency,name=" + histogram.name));
+        }
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException("could not register the metrics MBeans", e);
+    }
+  }
+}
+
+// a histogram of latencies in nanoseconds, in the style of HdrHistogram: values
+// below 64 get a bucket each, and every power of two above that is split into
+// 32 buckets, so any value is known to within about 3%
+// recording is lock-free, so it can be read while the game is running
+class LatencyHistogram {
+  static final int SUB_BITS = 5;
+  static final int SUB_COUNT = 1 << SUB_BITS;
+  // enough buckets for every non-negative long
+  static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+  String name;
+  AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  AtomicLong total = new AtomicLong();
+  AtomicLong sum = new AtomicLong();
+  AtomicLong max = new AtomicLong();
+
+  LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  // the bucket the given value falls into
+  static int bucket(long value) {
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - (SUB_BITS + 1));
+    return (shift << SUB_BITS) + (int) (value >>> shift);
+  }
+
+  // the largest value that falls into the given bucket
+  static long highestIn(int bucket) {
+    int shift = Math.max(0, (bucket >> SUB_BITS) - 1);
+    long lowest = (long) (bucket - (shift << SUB_BITS)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  // EFFECT: records the time since the given start, unless it is GameMetrics.OFF
+  void stop(long start) {
+    if (start != GameMetrics.OFF) {
+      this.record(System.nanoTime() - start);
+    }
+  }
+
+  // EFFECT: records the time since the given start, unless it is GameMetrics.OFF
+  // returns the time now, to start the next section at, or GameMetrics.OFF
+  long lap(long start) {
+    if (start == GameMetrics.OFF) {
+      return GameMetrics.OFF;
+    }
+    long now = System.nanoTime();
+    this.record(now - start);
+    return now;
+  }
+
+  // EFFECT: records one value
+  void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    this.counts.incrementAndGet(bucket(value));
+    this.total.incrementAndGet();
+    this.sum.addAndGet(value);
+    long old = this.max.get();
+    while (value > old && !this.max.compareAndSet(old, value)) {
+      old = this.max.get();
+    }
+  }
+
+  long count() {
+    return this.total.get();
+  }
+
+  double mean() {
+    long count = this.count();
+    return count == 0 ? 0 : (double) this.sum.get() / count;
+  }
+
+  long max() {
+    return this.max.get();
+  }
+
+  // the smallest value that at least the given percent of recorded values are
+  // at most, to within a bucket, 0 if nothing is recorded
+  long valueAtPercentile(double percent) {
+    long count = this.count();
+    if (count == 0) {
+      return 0;
+    }
+    long wanted = Math.max(1, (long) Math.ceil(count * percent / 100));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += this.counts.get(bucket);
+      if (seen >= wanted) {
+        return Math.min(highestIn(bucket), this.max());
+      }
+    }
+    return this.max();
+  }
+
+  // EFFECT: forgets every recorded value
+  void reset() {
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      this.counts.set(bucket, 0);
+    }
+    this.total.set(0);
+    this.sum.set(0);
+    this.max.set(0);
+  }
+}
+
+// the JMX view of the metrics: with no histogram it is the switch, with the
+// Enabled attribute and the dump and reset operations, and with one it shows
+// that histogram's count, mean, percentiles and max in nanoseconds
+// it is a DynamicMBean so that nothing here has to be public
+class MetricsBean implements DynamicMBean {
+  static final String[] LATENCIES = {"Count", "Mean", "P50", "P90", "P99", "P999", "Max"};
+
+  LatencyHistogram histogram;
+
+  MetricsBean(LatencyHistogram histogram) {
+    this.histogram = histogram;
+  }
+
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    if (this.histogram == null) {
+      if (attribute.equals("Enabled")) {
+        return GameMetrics.enabled;
+      }
+    } else if (attribute.equals("Count")) {
+      return this.histogram.count();
+    } else if (attribute.equals("Mean")) {
+      return this.histogram.mean();
+    } else if (attribute.equals("P50")) {
+      return this.histogram.valueAtPercentile(50);
+    } else if (attribute.equals("P90")) {
+      return this.histogram.valueAtPercentile(90);
+    } else if (attribute.equals("P99")) {
+      return this.histogram.valueAtPercentile(99);
+    } else if (attribute.equals("P999")) {
+      return this.histogram.valueAtPercentile(99.9);
+    } else if (attribute.equals("Max")) {
+      return this.histogram.max();
+    }
+    throw new AttributeNotFoundException(attribute);
+  }
+
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    if (this.histogram != null || !attribute.getName().equals("Enabled")) {
+      throw new AttributeNotFoundException(attribute.getName());
+    }
+    GameMetrics.setEnabled((Boolean) attribute.getValue());
+  }
+
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      try {
+        list.add(new Attribute(attribute, this.getAttribute(attribute)));
+      } catch (AttributeNotFoundException e) {
+        // attributes that do not exist are left out, as JMX expects
+      }
+    }
+    return list;
+  }
+
+  public AttributeList setAttributes(AttributeList attributes) {
+    AttributeList set = new AttributeList();
+    for (Attribute attribute : attributes.asList()) {
+      try {
+        this.setAttribute(attribute);
+        set.add(attribute);
+      } catch (AttributeNotFoundException e) {
+        // likewise left out
+      }
+    }
+    return set;
+  }
+
+  public Object invoke(String action, Object[] params, String[] signature)
+      throws ReflectionException {
+    if (action.equals("reset")) {
+      if (this.histogram == null) {
+        GameMetrics.reset();
+      } else {
+        this.histogram.reset();
+      }
+      return null;
+    } else if (action.equals("dump") && this.histogram == null) {
+      return GameMetrics.dump();
+    }
+    throw new ReflectionException(new NoSuchMethodException(action));
+  }
+
+  public MBeanInfo getMBeanInfo() {
+    if (this.histogram == null) {
+      return new MBeanInfo(GameMetrics.class.getName(), "Light Em All latency metrics",
+          new MBeanAttributeInfo[] {new MBeanAttributeInfo("Enabled", "boolean",
+              "whether handlers are timed", true, true, true)},
+          null,
+          new MBeanOperationInfo[] {
+              new MBeanOperationInfo("dump", "every histogram as a table", null, "java.lang.String",
+                  MBeanOperationInfo.INFO),
+              new MBeanOperationInfo("reset", "forget every histogram", null, "void",
+                  MBeanOperationInfo.ACTION)},
+          null);
+    }
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[LATENCIES.length];
+    for (int i = 0; i < LATENCIES.length; i++) {
+      attributes[i] = new MBeanAttributeInfo(LATENCIES[i], i == 1 ? "double" : "long",
+          i == 0 ? "values recorded" : "nanoseconds", true, false, false);
+    }
+    return new MBeanInfo(LatencyHistogram.class.getName(), "latency of " + this.histogram.name,
+        attributes, null,
+        new MBeanOperationInfo[] {new MBeanOperationInfo("reset", "forget this histogram", null,
+            "void", MBeanOperationInfo.ACTION)},
+        null);
+  }
+}
@@ -1,9 +1,9 @@
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import tester.*;
 import javalib.impworld.*;
@@ -26,7 +26,9 @@ class GamePiece {
 
   // whether the power station is on this piece
   boolean powerStation;
-  boolean powered;
+  // private so that it only changes through LightEmAll2.setPowered, which
+  // keeps count of the powered pieces
+  private boolean powered;
 
   // constructor 1
   public GamePiece(int row, int col) {
@@ -34,6 +36,16 @@ class GamePiece {
     this.col = col;
   }
 
+  // constructor 3
+  // a GamePiece view of the given cell of a compact board
+  public GamePiece(BitBoard bits, int col, int row) {
+    this(row, col);
+    int cell = bits.index(col, row);
+    this.setConnectorMask(bits.mask(cell));
+    this.powerStation = bits.station == cell;
+    this.powered = bits.isPowered(cell);
+  }
+
   // constructor 2
   public GamePiece(int row, int col, boolean left, boolean right, boolean top, boolean bottom,
       boolean powerStation, boolean powered) {
@@ -86,6 +98,20 @@ class GamePiece {
     return image;
   }
 
+  public boolean isPowered() {
+    return this.powered;
+  }
+
+  // EFFECT: sets whether this GamePiece is powered
+  // returns whether that changed it
+  // only for LightEmAll2.setPowered, which counts the change, anything else
+  // calling it leaves the count wrong
+  boolean switchPower(boolean powered) {
+    boolean changed = this.powered != powered;
+    this.powered = powered;
+    return changed;
+  }
+
   // method that rotates the gamePiece it is called on
   public void rotate() {
     boolean temp = this.left;
@@ -95,6 +121,20 @@ class GamePiece {
     this.top = temp;
   }
 
+  // the connectors of this GamePiece as a 4-bit mask, see BoardModel for the bits
+  public int connectorMask() {
+    return (this.left ? BoardModel.LEFT : 0) | (this.top ? BoardModel.TOP : 0)
+        | (this.right ? BoardModel.RIGHT : 0) | (this.bottom ? BoardModel.BOTTOM : 0);
+  }
+
+  // EFFECT: sets the connectors of this GamePiece from a 4-bit mask
+  public void setConnectorMask(int mask) {
+    this.left = (mask & BoardModel.LEFT) != 0;
+    this.top = (mask & BoardModel.TOP) != 0;
+    this.right = (mask & BoardModel.RIGHT) != 0;
+    this.bottom = (mask & BoardModel.BOTTOM) != 0;
+  }
+
   //checks if two GamePieces are the same GamePiece
   public boolean sameGamePiece(GamePiece that) {
     return that.row == this.row 
@@ -129,11 +169,17 @@ class GamePiece {
 }
 
 //lightEmAll class that represents the game
-class LightEmAll2 extends World {
+class LightEmAll2 extends World implements BoardModel {
   // a list of columns of GamePieces,
   // i.e., represents the board in column-major order
   ArrayList<ArrayList<GamePiece>> board;
 
+  // the same GamePieces in one array by cell index, and the index of each
+  // cell's neighbor across each connector, for the game to use instead of
+  // going through the lists, rebuilt whenever pieces are added to board
+  GamePiece[] cells;
+  int[] neighbors;
+
   // a list of all nodes
   ArrayList<GamePiece> nodes;
 
@@ -145,17 +191,30 @@ class LightEmAll2 extends World {
   int width;
   int height;
 
-  // the current location of the power station,
-  // as well as its effective radius
-  int powerRow;
-  int powerCol;
-  int radius;
-
   // random seed for examples to make the board
   Random rand;
 
-  //field to keep track of the number of steps
-  int steps;
+  // the rules of the game, played on the GamePieces of this board: the power
+  // station, the steps taken and which pieces are powered
+  LightEmAllEngine engine;
+
+  // tile images already drawn, shared by every frame
+  TileCache tiles = new TileCache(TileCache.DEFAULT_CAPACITY);
+
+  // whether anything may have changed the board or the window since the tile
+  // images were last brought up to date
+  boolean frameDirty;
+  // the image each cell had in the last frame, and what it was drawn from
+  WorldImage[] frameTiles;
+  long[] frameState;
+  // the wire color of a powered cell by its distance from the station
+  WireGradient gradient;
+  // how many of the pieces are powered, kept up to date by setPowered
+  int poweredCount;
+  // the part of the board in the window, made on first use
+  Viewport view;
+  // where the mouse was pressed, to scroll by dragging
+  Posn pressedAt;
 
   // constructor 1
   // more consistent game with seeded random
@@ -172,24 +231,24 @@ class LightEmAll2 extends World {
     // setting the board equal to the manual board created
     board = fixedBoard();
 
+    // the radius of the station and the hints come from the solved board
+    int radius = LightEmAllEngine.effectiveRadius(this, new CellBfs(width * height));
+    byte[] solved = LightEmAllEngine.masksOf(this);
+
     // randomizing the nodes in the constructor so that it initializes in the
     // beginning of every game
-    for (GamePiece gp : nodes) {
-      // randomly rotate each GamePiece object
-      for (int i = 0; i < this.rand.nextInt(4); i++) {
-        gp.rotate();
-      }
-    }
+    LightEmAllEngine.scramble(this, this.rand);
 
     // to initialize the powerStation
     // SET IN THE CENTER OF THE GRID FOR PART 1
-    this.powerRow = Math.round(height / 2);
-    this.powerCol = Math.round(width / 2);
-    this.board.get(this.powerCol).get(this.powerRow).powered = true;
-    this.board.get(this.powerCol).get(this.powerRow).powerStation = true;
+    this.board.get(Math.round(width / 2)).get(Math.round(height / 2)).powerStation = true;
 
-    // calling bfs to update the links
-    bfs();
+    // power up everything connected to the station
+    this.engine = new LightEmAllEngine(this, Math.round(width / 2), Math.round(height / 2));
+    if (this.engine.radius == 0) {
+      this.engine.radius = radius;
+    }
+    this.engine.setSolution(solved);
 
   }
 
@@ -203,6 +262,12 @@ class LightEmAll2 extends World {
 
 
   LightEmAll2(int width, int height, Random rand) {
+    this(width, height, rand, true);
+  }
+
+  // a Kruskal board that is only rewired to have a single solution if unique is
+  // set, for boards too big to rewire quickly
+  LightEmAll2(int width, int height, Random rand, boolean unique) {
     this.width = width;
     this.height = height;
     this.rand = rand; //or should it be new Random()???
@@ -212,23 +277,11 @@ class LightEmAll2 extends World {
     //initialize board
     initializeBoard();
 
-    //power station should be at top left
-    this.powerRow = 0;
-    this.powerCol = 0;
-
     this.nodes = Utils.flatten(this.board); // all the gamepieces in your board 
 
-    this.MST();
-
-    // randomizing the nodes in the constructor so that it initializes in the
-    // beginning of every game
-    for (GamePiece gp : nodes) {
-      // randomly rotate each GamePiece object
-      for (int i = 0; i < this.rand.nextInt(4); i++) {
-        gp.rotate();
-      }
-    }
-
+    // runs Kruskal's algorithm, scrambles the pieces and powers them up,
+    // power station should be at top left
+    this.engine = new LightEmAllEngine(this, this.rand, unique);
   }
 
   // EFFECT: initializes the board to to have no connections
@@ -241,71 +294,81 @@ class LightEmAll2 extends World {
       }
       this.board.add(col);
     }
-    this.board.get(0).get(0).powerStation = true;
+    this.indexCells();
+    this.cells[0].powerStation = true;
 
   }
 
   // EFFECT: creates connections and unions between edges
   public void MST() {
-    HashMap<GamePiece, GamePiece> reps = new HashMap<>();
-    for (GamePiece gp : this.nodes) {
-      reps.put(gp, gp);
-    }
-    ArrayList<Edge> treeEdges = new ArrayList<>();
-    ArrayList<Edge> genList = this.generateEdges(); //calls method that generates edges
-
-    while(treeEdges.size() < this.nodes.size() - 1) {
-      Edge current = genList.remove(0);
-      GamePiece from = current.from;
-      GamePiece to = current.to;
-
-      if (!this.topRep(reps.get(to), reps).sameGamePiece(this.topRep(reps.get(from), reps))) {
-        treeEdges.add(current);
-        this.union(to, from , reps);
-        to.connectTo(from);
-      }
-    }
+    LightEmAllEngine.generate(this, this.rand);
   }
 
-  // EFFECT: sets the top representatives for each node
-  public void union(GamePiece to, GamePiece from, HashMap<GamePiece,GamePiece> reps) {
-    reps.put(topRep(to, reps), topRep(from, reps));
+  // the index of the given GamePiece when the board is numbered column by column
+  public int cellIndex(GamePiece gp) {
+    return gp.col * this.height + gp.row;
   }
 
-  // finds the top level representative for the given GamePiece in the MST
-  public GamePiece topRep(GamePiece gp, HashMap<GamePiece, GamePiece> reps) {
-    if (gp.sameGamePiece(reps.get(gp))) {
-      return gp;
-    }
-    return this.topRep(reps.get(gp), reps);
+  // the GamePiece at the given index when the board is numbered column by column
+  public GamePiece pieceAt(int index) {
+    return this.cells[index];
   }
 
-  // finds all the possible edges on this board
+  // finds all the possible edges on this board, each one once, sorted by weight
   public ArrayList<Edge> generateEdges() {
-    ArrayList<Edge> edges = new ArrayList<>();
-    //represents directions to neighboring cells
-    ArrayList<Posn> directions = new ArrayList<>(Arrays.asList(new Posn(-1, 0), new Posn(0, -1), new Posn(0, 1), new Posn(1, 0)));
-
-    for (int col = 0; col < this.width; col++) {
-      for (int row = 0; row < this.height; row++) {
-        for (int v = 0; v < directions.size(); v++) {
-          //for each vector p, calculates the coordinates x and y of the neighboring cell by adding the vector's 
-          //coordinates to the current cell's coordinates (row and col)
-          Posn p = directions.get(v);        
-          int x = p.x + col;
-          int y = p.y + row;
-          if (this.validCoor(x, y)) { //checks if they are valid coordinates on the grid
-            //if they are, make it a new edge with a random weight
-            edges.add(new Edge(this.board.get(col).get(row), this.board.get(x).get(y), this.rand.nextInt(40)));
-          }
-        }
-      }
+    long[] packed = KruskalEdges.sortedEdges(this.width, this.height, this.rand);
+    ArrayList<Edge> edges = new ArrayList<>(packed.length);
+    for (long e : packed) {
+      edges.add(new Edge(this.pieceAt(KruskalEdges.from(e)), this.pieceAt(KruskalEdges.to(e)),
+          KruskalEdges.weight(e)));
     }
-    //sort the edges
-    Collections.sort(edges, new CompWeight());
     return edges;
   }
 
+  // BoardModel view over the GamePieces of this board
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int mask(int cell) {
+    return this.pieceAt(cell).connectorMask();
+  }
+
+  public void setMask(int cell, int mask) {
+    this.pieceAt(cell).setConnectorMask(mask);
+  }
+
+  public boolean isPowered(int cell) {
+    return this.pieceAt(cell).isPowered();
+  }
+
+  public int neighbor(int cell, int dir) {
+    return this.neighbors[NeighborTable.slot(cell, dir)];
+  }
+
+  public void setPowered(int cell, boolean powered) {
+    GamePiece piece = this.pieceAt(cell);
+    if (piece.switchPower(powered)) {
+      this.poweredCount += powered ? 1 : -1;
+    }
+  }
+
+  public int poweredCount() {
+    return this.poweredCount;
+  }
+
+  // copies this board into the compact representation
+  public BitBoard toBitBoard() {
+    BitBoard bits = BitBoard.copyOf(this);
+    bits.station = this.index(this.engine.powerCol, this.engine.powerRow);
+    return bits;
+  }
+
   public boolean validCoor(int x, int y) {
     return x >= 0 && x < this.width && y >= 0 && y < this.height;
   }
@@ -323,7 +386,7 @@ class LightEmAll2 extends World {
       for (int row = 0; row < this.height; row++) {
         // column.add(row, new GamePiece(row, col));
         // get the current piece we are working with
-        GamePiece piece = this.board.get(col).get(row);
+        GamePiece piece = this.cells[this.index(col, row)];
         // all the vertical lines
         // every row should have the top piece be true, except for the top most row
         piece.top = (row > 0);
@@ -355,10 +418,29 @@ class LightEmAll2 extends World {
       }
       board.add(column);
     }
+    this.indexCells();
+  }
+
+  // EFFECT: lays the GamePieces of board out by cell index, and works out the
+  // neighbors again if the size of the board changed
+  public void indexCells() {
+    int size = this.width * this.height;
+    if (this.cells == null || this.cells.length != size) {
+      this.cells = new GamePiece[size];
+      this.neighbors = NeighborTable.build(this.width, this.height);
+    }
+    for (int col = 0; col < this.width; col++) {
+      ArrayList<GamePiece> column = this.board.get(col);
+      for (int row = 0; row < this.height; row++) {
+        this.cells[col * this.height + row] = column.get(row);
+      }
+    }
   }
 
   // onKeyEvent to allow the player to move the power station
   public void onKeyEvent(String key) {
+    long start = GameMetrics.start();
+    this.frameDirty = true;
     // check if the pressed key is "r"
     if (key.equals("r")) {
       // call resetBoard() to reset the board
@@ -376,34 +458,47 @@ class LightEmAll2 extends World {
       else if (key.equals("up")) {
         movePowerStation(0, -1);
       }
+      // take a rotation back, or make it again
+      else if (key.equals("u")) {
+        this.undo();
+      }
+      else if (key.equals("y")) {
+        this.redo();
+      }
+      // scroll a tile at a time, and zoom
+      else if (key.equals("a")) {
+        this.viewport().pan(-this.viewport().tileSize(), 0);
+      }
+      else if (key.equals("d")) {
+        this.viewport().pan(this.viewport().tileSize(), 0);
+      }
+      else if (key.equals("w")) {
+        this.viewport().pan(0, -this.viewport().tileSize());
+      }
+      else if (key.equals("s")) {
+        this.viewport().pan(0, this.viewport().tileSize());
+      }
+      else if (key.equals("=") || key.equals("+")) {
+        this.viewport().zoomBy(1);
+      }
+      else if (key.equals("-")) {
+        this.viewport().zoomBy(-1);
+      }
     }
+    GameMetrics.KEY_EVENT.stop(start);
   }
 
   // helper for onKeyEvent that is the action of moving the power station
   public void movePowerStation(int changeCol, int changeRow) {
-    int newPowerCol = this.powerCol + changeCol;
-    int newPowerRow = this.powerRow + changeRow;
-
-    // check if the new position is within the board numbers
-    if (newPowerCol >= 0 && newPowerCol < this.width && newPowerRow >= 0
-        && newPowerRow < this.height) {
-
-      // check if the new position is the power station
-      GamePiece currentPiece = this.board.get(this.powerCol).get(this.powerRow);
-      GamePiece newPiece = this.board.get(newPowerCol).get(newPowerRow);
-
-      if ((changeCol == -1 && currentPiece.left && newPiece.right)
-          || (changeCol == 1 && currentPiece.right && newPiece.left)
-          || (changeRow == -1 && currentPiece.top && newPiece.bottom)
-          || (changeRow == 1 && currentPiece.bottom && newPiece.top)) {
-
-        // Update the power station position
-        this.board.get(this.powerCol).get(this.powerRow).powerStation = false;
-        this.powerCol = newPowerCol;
-        this.powerRow = newPowerRow;
-        this.board.get(this.powerCol).get(this.powerRow).powerStation = true;
-
-      }
+    this.frameDirty = true;
+    GamePiece currentPiece = this.pieceAt(this.index(this.engine.powerCol,
+        this.engine.powerRow));
+
+    // the engine only moves it if there is a wire connecting the two pieces
+    if (this.engine.movePowerStation(changeCol, changeRow)) {
+      // Update the power station position
+      currentPiece.powerStation = false;
+      this.pieceAt(this.index(this.engine.powerCol, this.engine.powerRow)).powerStation = true;
     }
   }
 
@@ -412,120 +507,108 @@ class LightEmAll2 extends World {
   // starts at the power station and iterates through closest neighbors
   // to update the links and power them up
   public void bfs() {
-    ArrayList<GamePiece> nodes = new ArrayList<>();
-    ArrayList<GamePiece> visited = new ArrayList<>();
-
-    GamePiece currentPowerStation = board.get(powerCol).get(powerRow);
-
-    // add the power station
-    nodes.add(currentPowerStation);
-
-    while (!nodes.isEmpty()) {
-
-      GamePiece curr = nodes.remove(0);
-
-      // mark current piece as visited
-      visited.add(curr);
-      curr.powered = true;
-
-      // check neighboring pieces that are connected and not visited yet
-
-      // check the top of the current power station && if it is inbounds && if the
-      // visitors list does not have it yet
-      if (curr.top && curr.row > 0 && !visited.contains(board.get(curr.col).get(curr.row - 1))) {
-        GamePiece topPiece = (board.get(curr.col).get(curr.row - 1));
-        if (topPiece.bottom) {
-          nodes.add(topPiece);
-        }
-      }
-
-      // check the bot of the current power station && if it is inbounds && if the
-      // visitors list does not have it yet
-      if (curr.bottom && curr.row < height - 1
-          && !visited.contains(board.get(curr.col).get(curr.row + 1))) {
-        GamePiece botPiece = (board.get(curr.col).get(curr.row + 1));
-        if (botPiece.top) {
-          nodes.add(botPiece);
-        }
-
-      }
-
-      // check the left of the current power station && if it is inbounds && if the
-      // visitors list does not have it yet
-      if (curr.left && curr.col > 0 && !visited.contains(board.get(curr.col - 1).get(curr.row))) {
-        GamePiece leftPiece = (board.get(curr.col - 1).get(curr.row));
-        if (leftPiece.right) {
-          nodes.add(leftPiece);
-        }
-      }
-
-      // check the right of the current power station && if it is inbounds && if the
-      // visitors list does not have it yet
-      if (curr.right && curr.col < width - 1
-          && !visited.contains(board.get(curr.col + 1).get(curr.row))) {
-        GamePiece rightPiece = (board.get(curr.col + 1).get(curr.row));
-        if (rightPiece.left) {
-          nodes.add(rightPiece);
-        }
-      }
-    }
+    long start = GameMetrics.start();
+    this.frameDirty = true;
+    this.engine.bfs();
+    GameMetrics.BFS.stop(start);
   }
 
   // mouse click to implement rotating the individual pieces
   public void onMouseClicked(Posn pos) {
+    long start = GameMetrics.start();
+    this.frameDirty = true;
 
-    // convert mouse click position to grid coordinates
-    int row = pos.y / 50;
-    int col = pos.x / 50;
+    // convert mouse click position to grid coordinates through the viewport
+    int row = this.viewport().rowAt(pos.y);
+    int col = this.viewport().colAt(pos.x);
 
     // check if the click is within the bounds of the board
     if (row >= 0 && row < height && col >= 0 && col < width) {
       // get the game piece at the clicked position
-      GamePiece clickedPiece = board.get(col).get(row);
+      GamePiece clickedPiece = this.pieceAt(this.index(col, row));
 
-      // rotate the clicked piece
+      // rotate the clicked piece, which also updates the power around it
       rotatePiece(clickedPiece);
-
-      // "reset" the game after rotating the clicked piece, so bfs can run again
-      for (GamePiece node : this.nodes) {
-        node.powered = false;
-      }
-
-      // update power distribution
-      bfs();
-
     }
 
     if (checkWinCondition()) {
       this.endOfWorld("CONGRATS! YOU WON");
     }
+    GameMetrics.MOUSE_CLICKED.stop(start);
+  }
+
+  // the part of the board in the window
+  public Viewport viewport() {
+    if (this.view == null || this.view.cols != this.width || this.view.rows != this.height) {
+      this.view = new Viewport(500, 500, this.width, this.height);
+    }
+    return this.view;
+  }
+
+  // remembers where a drag starts
+  public void onMousePressed(Posn pos) {
+    this.pressedAt = pos;
+  }
 
+  // scrolls the board along with the mouse when it was dragged, a release
+  // where it was pressed is a click and does nothing here
+  public void onMouseReleased(Posn pos) {
+    if (this.pressedAt != null && (pos.x != this.pressedAt.x || pos.y != this.pressedAt.y)) {
+      this.viewport().pan(this.pressedAt.x - pos.x, this.pressedAt.y - pos.y);
+      this.frameDirty = true;
+    }
+    this.pressedAt = null;
   }
 
   // rotate the given game piece
   public void rotatePiece(GamePiece piece) {
-    // toggle the rotation status of the piece
-    piece.rotate();
-    //every time you rotate a piece it is a step that you take, the lower the steps the better
-    steps++;
+    this.frameDirty = true;
+    // toggle the rotation status of the piece and count the step
+    this.engine.rotate(piece.col, piece.row);
+  }
+
+  // EFFECT: takes back the last rotation, along with its step
+  // returns false if there is none
+  public boolean undo() {
+    this.frameDirty = true;
+    return this.engine.undo();
+  }
+
+  // EFFECT: makes the last rotation taken back again
+  // returns false if there is none
+  public boolean redo() {
+    this.frameDirty = true;
+    return this.engine.redo();
   }
 
   // checks if the player has won yet by checking if all the nodes are powered up
   public boolean checkWinCondition() {
-    // you went through every single node, point to congrats end scene
-    for (GamePiece node : nodes) {
-      if (!node.powered) {
-        return false;
-      }
-    }
-    return true;
+    return this.engine.checkWinCondition();
+  }
+
+  // the piece to rotate next to get closer to the solved board, or null if
+  // every piece is where it belongs
+  public GamePiece hintPiece() {
+    int cell = this.engine.hintCell();
+    return cell < 0 ? null : this.pieceAt(cell);
+  }
+
+  // how many times to rotate the hinted piece
+  public int hintTurns() {
+    return this.engine.hintTurns();
+  }
+
+  // how many pieces are not yet where they belong
+  public int tilesRemaining() {
+    return this.engine.tilesRemaining();
   }
 
   // shows the last scene (you won)
   public WorldScene lastScene(String message) {
 
-    // create a new scene with the size of the grid
-    WorldScene scene = this.makeScene();
+    // create a new scene with the size of the grid, not the kept frame, since
+    // the message is drawn onto it
+    WorldScene scene = this.drawScene();
 
     // draw the message at the center of the scene
     TextImage messageText = new TextImage(message, 20, FontStyle.BOLD, Color.BLACK);
@@ -536,25 +619,49 @@ class LightEmAll2 extends World {
   }
 
   // creating the worldscene to make the game/grid show up
+  // every frame is a new scene, but the tile images are only looked over again
+  // once something may have changed the board or the window
   public WorldScene makeScene() {
+    long start = GameMetrics.start();
+    if (this.frameTiles == null || this.frameDirty) {
+      long render = GameMetrics.start();
+      this.updateTiles();
+      GameMetrics.RENDER.stop(render);
+      this.frameDirty = false;
+    }
+    WorldScene scene = this.placeTiles();
+    GameMetrics.MAKE_SCENE.stop(start);
+    return scene;
+  }
 
-    WorldScene ws = new WorldScene(500, 500);
+  // draws a new frame from the board as it is now
+  public WorldScene drawScene() {
+    this.updateTiles();
+    return this.placeTiles();
+  }
 
+  // EFFECT: gives every tile in the window the image for how its piece looks
+  // now, where only tiles whose connectors, power, color or station changed
+  // get a new image
+  public void updateTiles() {
     // constants :
-    int tileSize = 50;
-    int wireWidth = 5;
-
-    // empty image base to build off of
-    WorldImage gridImage = new EmptyImage();
-
-    // loops through each row
-    for (int row = 0; row < height; row++) {
-      WorldImage rowImage = new EmptyImage();
+    Viewport view = this.viewport();
+    int tileSize = view.tileSize();
+    int wireWidth = Math.max(1, tileSize / 10);
+
+    if (this.frameTiles == null || this.frameTiles.length != this.width * this.height) {
+      this.frameTiles = new WorldImage[this.width * this.height];
+      this.frameState = new long[this.width * this.height];
+      this.gradient = new WireGradient(this.width, this.height);
+    }
 
-      // loop through each column
-      for (int col = 0; col < width; col++) {
+    // loops through each row in the window, the rest of the board is not drawn
+    for (int row = view.firstRow(); row < view.endRow(); row++) {
+      // loop through each column in the window
+      for (int col = view.firstCol(); col < view.endCol(); col++) {
         // get the current piece in the col list
-        GamePiece piece = board.get(col).get(row);
+        int cell = this.index(col, row);
+        GamePiece piece = this.cells[cell];
 
         // generates the tile image for the current piece
         // wire color calls on a helper method to calculate the wire color of the
@@ -564,44 +671,58 @@ class LightEmAll2 extends World {
         // if they are, it will be true and their will be a powerStation there,
         // otherwise no
         Color color = Color.black;
-        if (piece.powered) {
-          int green = 255 - 25 * (int) Math.sqrt(Math.pow(this.powerCol - row, 2) 
-              + Math.pow(this.powerRow - col, 2));
-          color = new Color(255, green, 0);
+        if (piece.isPowered()) {
+          color = this.gradient.colorAt(col, row, this.engine.powerCol, this.engine.powerRow);
+        }
+        boolean station = piece.row == this.engine.powerRow && piece.col == this.engine.powerCol;
+
+        // everything the tile image depends on, to tell whether the last one still fits
+        long state = ((long) tileSize << 40) | ((color.getRGB() & 0xFFFFFFFFL) << 8)
+            | (station ? 16 : 0) | piece.connectorMask();
+        if (this.frameTiles[cell] == null || this.frameState[cell] != state) {
+          this.frameTiles[cell] = this.tiles.tileImage(piece.connectorMask(), tileSize, wireWidth,
+              color, station);
+          this.frameState[cell] = state;
         }
-        WorldImage tile = piece.tileImage(tileSize, wireWidth, color,
-            (piece.row == powerRow && piece.col == powerCol));
-
-        // add tile to the row image
-        rowImage = new BesideImage(rowImage, tile);
       }
+    }
+  }
 
-      // add row image to the grid image
-      gridImage = new AboveImage(gridImage, rowImage);
+  // a new scene with the tile images of the window placed straight at their
+  // own positions
+  // a WorldScene can only be added to, so every tile is placed again
+  public WorldScene placeTiles() {
 
-      ws.placeImageXY(gridImage, 125, 125);
+    WorldScene ws = new WorldScene(500, 500);
+    Viewport view = this.viewport();
 
-      // setting up a title, first row 
-      TextImage title = new TextImage("WELCOME TO POWER LINE!", 15, FontStyle.BOLD, Color.BLACK);
-      ws.placeImageXY(title, 125, 260);
+    for (int row = view.firstRow(); row < view.endRow(); row++) {
+      for (int col = view.firstCol(); col < view.endCol(); col++) {
+        ws.placeImageXY(this.frameTiles[this.index(col, row)], view.screenX(col),
+            view.screenY(row));
+      }
+    }
 
-      //set up who the game was made by 
-      TextImage coders = new TextImage("made by : livia & gayatri", 15, FontStyle.BOLD, Color.darkGray);
-      ws.placeImageXY(coders, 125, 280);
+    // setting up a title, first row 
+    TextImage title = new TextImage("WELCOME TO POWER LINE!", 15, FontStyle.BOLD, Color.BLACK);
+    ws.placeImageXY(title, 125, 260);
 
-      // setting up an end game pointer
-      TextImage restartGame = new TextImage("click r to restart the game", 18, FontStyle.BOLD, Color.GRAY);
-      ws.placeImageXY(restartGame, 125, 300);
+    //set up who the game was made by 
+    TextImage coders = new TextImage("made by : livia & gayatri", 15, FontStyle.BOLD, Color.darkGray);
+    ws.placeImageXY(coders, 125, 280);
 
-      //draw the steps taken so far
-      TextImage stepsText = new TextImage("amount of steps: " + steps, 15, FontStyle.BOLD, Color.BLACK);
-      ws.placeImageXY(stepsText, 125, 350);
+    // setting up an end game pointer
+    TextImage restartGame = new TextImage("click r to restart the game", 18, FontStyle.BOLD, Color.GRAY);
+    ws.placeImageXY(restartGame, 125, 300);
 
-      //draw the score
-      //TextImage scoreText = new TextImage("Score: " + score, 20, FontStyle.BOLD, Color.BLACK);
-      //ws.placeImageXY(scoreText, 400, 100);
+    //draw the steps taken so far
+    TextImage stepsText = new TextImage("amount of steps: " + this.engine.steps, 15, FontStyle.BOLD,
+        Color.BLACK);
+    ws.placeImageXY(stepsText, 125, 350);
 
-    }
+    //draw the score
+    //TextImage scoreText = new TextImage("Score: " + score, 20, FontStyle.BOLD, Color.BLACK);
+    //ws.placeImageXY(scoreText, 400, 100);
 
     return ws;
   }
@@ -636,6 +757,7 @@ class LightEmAll2 extends World {
   //should it change where the pipe is or should the pipe stay in the same place?
   // Method to reset the board with default connectivity
   public void resetBoard() {
+    this.frameDirty = true;
     // Clear existing board
     this.board.clear();
     this.nodes.clear();
@@ -643,17 +765,27 @@ class LightEmAll2 extends World {
     addGamePieces();
 
     board = fixedBoard();
+    // none of the new pieces are powered yet
+    this.poweredCount = 0;
+    byte[] solved = LightEmAllEngine.masksOf(this);
+    // the radius of the station comes from the new solved board too
+    this.engine.radius = this.engine.effectiveRadius();
 
     // randomizing the nodes in the constructor so that it initializes in the
     // beginning of every game
-    for (GamePiece gp : nodes) {
-      // randomly rotate each GamePiece object
-      for (int i = 0; i < this.rand.nextInt(4); i++) {
-        gp.rotate();
-      }
-    }      
-
-    bfs();
+    LightEmAllEngine.scramble(this, this.rand);
+
+    // the new pieces need the station put back on them before powering up
+    this.pieceAt(this.index(this.engine.powerCol, this.engine.powerRow)).powerStation = true;
+    // repowering files every scrambled piece against the solved board
+    this.engine.hints = new HintTracker(solved);
+    this.engine.repower();
+    // in radius mode the new radius is the limit
+    if (this.engine.radiusMode) {
+      this.engine.setRadiusMode(true);
+    }
+    // the old moves do not fit the new pieces
+    this.engine.journal.clear();
   }
 
 
@@ -668,6 +800,186 @@ class LightEmAll2 extends World {
   // implement on tick so that every tick adds to the time displayed, when 60 sec hits add it to be one minute 
 }
 
+// remembers the tile images drawn by GamePiece.tileImage, so that a frame reuses
+// them instead of building a new tree of images for every tile
+// images are keyed by connector mask, wire color, station, tile size and wire width,
+// and the least recently used one is dropped once there are more than capacity
+class TileCache {
+  static final int DEFAULT_CAPACITY = 1024;
+
+  int capacity;
+  LinkedHashMap<Long, WorldImage> images;
+
+  TileCache(int capacity) {
+    this.capacity = capacity;
+    // access order, so iteration starts at the least recently used image
+    this.images = new LinkedHashMap<Long, WorldImage>(64, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long, WorldImage> eldest) {
+        return this.size() > TileCache.this.capacity;
+      }
+    };
+  }
+
+  // the image of a tile with the given connectors, drawn as GamePiece.tileImage would
+  // the wire color is quantized to 6 bits a channel so close gradient colors share an image
+  WorldImage tileImage(int mask, int size, int wireWidth, Color wireColor,
+      boolean hasPowerStation) {
+    int color = TileCache.quantize(wireColor.getRGB());
+    long key = ((long) size << 48) | ((long) (wireWidth & 0xFFFF) << 32) | ((long) color << 5)
+        | (hasPowerStation ? 16 : 0) | mask;
+    WorldImage image = this.images.get(key);
+    if (image == null) {
+      GamePiece shape = new GamePiece(0, 0);
+      shape.setConnectorMask(mask);
+      image = shape.tileImage(size, wireWidth, TileCache.dequantize(color), hasPowerStation);
+      this.images.put(key, image);
+    }
+    return image;
+  }
+
+  // keeps the top 6 bits of each channel of an RGB color, 18 bits in all
+  static int quantize(int rgb) {
+    return ((rgb >> 6) & 0x3F000) | ((rgb >> 4) & 0xFC0) | ((rgb >> 2) & 0x3F);
+  }
+
+  // the color a quantized color stands for, each 6 bit channel spread back over 0 to 255
+  static Color dequantize(int color) {
+    int red = (color >> 12) & 0x3F;
+    int green = (color >> 6) & 0x3F;
+    int blue = color & 0x3F;
+    return new Color((red << 2) | (red >> 4), (green << 2) | (green >> 4),
+        (blue << 2) | (blue >> 4));
+  }
+}
+
+// the wire colors of powered tiles, which fade from yellow towards red the
+// further a tile is from the power station: the green channel drops by 25 for
+// every whole tile of straight-line distance
+// the distance only depends on how many columns and rows apart two cells are,
+// so one table per board size serves every station position
+class WireGradient {
+  // every color a wire can have, by its green channel
+  static final Color[] PALETTE = new Color[256];
+
+  static {
+    for (int green = 0; green < 256; green++) {
+      PALETTE[green] = new Color(255, green, 0);
+    }
+  }
+
+  int height;
+  // the green channel of a wire colOffset columns and rowOffset rows away from the
+  // station, at colOffset * height + rowOffset
+  byte[] green;
+
+  WireGradient(int width, int height) {
+    this.height = height;
+    this.green = new byte[width * height];
+    for (int colOffset = 0; colOffset < width; colOffset++) {
+      for (int rowOffset = 0; rowOffset < height; rowOffset++) {
+        int distance = (int) Math.sqrt(colOffset * colOffset + rowOffset * rowOffset);
+        this.green[colOffset * height + rowOffset] = (byte) Math.max(0, 255 - 25 * distance);
+      }
+    }
+  }
+
+  // the wire color of a powered tile at the given column and row
+  Color colorAt(int col, int row, int stationCol, int stationRow) {
+    return PALETTE[this.green[Math.abs(col - stationCol) * this.height
+        + Math.abs(row - stationRow)] & 0xFF];
+  }
+}
+
+// the part of the board that is on screen: which board pixel is at the top
+// left of the window and how big a tile is drawn
+// a 500 x 500 window starts at the top left of the board with 50 pixel tiles,
+// the way the game has always been drawn
+class Viewport {
+  // the tile sizes zooming steps through
+  static final int[] TILE_SIZES = {10, 20, 30, 50, 80, 120};
+  static final int DEFAULT_ZOOM = 3;
+
+  int screenWidth;
+  int screenHeight;
+  // the size of the board in tiles
+  int cols;
+  int rows;
+  int zoom = DEFAULT_ZOOM;
+  // the board pixel at the top left of the window, at the current tile size
+  int x;
+  int y;
+
+  Viewport(int screenWidth, int screenHeight, int cols, int rows) {
+    this.screenWidth = screenWidth;
+    this.screenHeight = screenHeight;
+    this.cols = cols;
+    this.rows = rows;
+  }
+
+  int tileSize() {
+    return TILE_SIZES[this.zoom];
+  }
+
+  // EFFECT: scrolls the given number of pixels, staying on the board
+  void pan(int dx, int dy) {
+    this.x = Math.max(0, Math.min(this.x + dx, this.cols * this.tileSize() - this.screenWidth));
+    this.y = Math.max(0, Math.min(this.y + dy, this.rows * this.tileSize() - this.screenHeight));
+  }
+
+  // EFFECT: zooms in (positive) or out (negative) the given number of steps,
+  // keeping the board point in the middle of the window where it is
+  void zoomBy(int steps) {
+    int old = this.tileSize();
+    this.zoom = Math.max(0, Math.min(this.zoom + steps, TILE_SIZES.length - 1));
+    int size = this.tileSize();
+    long middleX = (long) (this.x + this.screenWidth / 2) * size / old;
+    long middleY = (long) (this.y + this.screenHeight / 2) * size / old;
+    this.x = (int) middleX - this.screenWidth / 2;
+    this.y = (int) middleY - this.screenHeight / 2;
+    this.pan(0, 0);
+  }
+
+  // the column under the given window pixel, or -1 if it is off the board
+  int colAt(int screenX) {
+    int boardX = screenX + this.x;
+    return boardX < 0 || boardX >= this.cols * this.tileSize() ? -1 : boardX / this.tileSize();
+  }
+
+  // the row under the given window pixel, or -1 if it is off the board
+  int rowAt(int screenY) {
+    int boardY = screenY + this.y;
+    return boardY < 0 || boardY >= this.rows * this.tileSize() ? -1 : boardY / this.tileSize();
+  }
+
+  // the first column and row with any part in the window
+  int firstCol() {
+    return this.x / this.tileSize();
+  }
+
+  int firstRow() {
+    return this.y / this.tileSize();
+  }
+
+  // one past the last column and row with any part in the window
+  int endCol() {
+    return Math.min(this.cols, (this.x + this.screenWidth + this.tileSize() - 1) / this.tileSize());
+  }
+
+  int endRow() {
+    return Math.min(this.rows,
+        (this.y + this.screenHeight + this.tileSize() - 1) / this.tileSize());
+  }
+
+  // where in the window the middle of the given column and row is drawn
+  int screenX(int col) {
+    return col * this.tileSize() + this.tileSize() / 2 - this.x;
+  }
+
+  int screenY(int row) {
+    return row * this.tileSize() + this.tileSize() / 2 - this.y;
+  }
+}
+
 //edge class that represents the links between cells
 class Edge {
   GamePiece from;
@@ -728,6 +1040,9 @@ class LightEmAllExamples2 {
     lightem2 = new LightEmAll2(5, 5, new Random());
     
     lightem3 = new LightEmAll2(3, 3, new Random());
+
+    // every win check makes sure the count of powered cells is right
+    LightEmAllEngine.verifyCounts = true;
   }
 
   //TESTS FROM PART 1
@@ -892,14 +1207,88 @@ class LightEmAllExamples2 {
     // checking if pieces are correctly powered around the powerstation if they are
     // connected
     // ensure power station is powered
-    t.checkExpect(lightem1.board.get(2).get(2).powered, true);
+    t.checkExpect(lightem1.board.get(2).get(2).isPowered(), true);
 
     // this tile not powered cause the wire does not connect
-    t.checkExpect(lightem1.board.get(2).get(1).powered, false);
-    t.checkExpect(lightem1.board.get(2).get(3).powered, true);
-    t.checkExpect(lightem1.board.get(1).get(2).powered, true);
-    t.checkExpect(lightem1.board.get(3).get(2).powered, true);
+    t.checkExpect(lightem1.board.get(2).get(1).isPowered(), false);
+    t.checkExpect(lightem1.board.get(2).get(3).isPowered(), true);
+    t.checkExpect(lightem1.board.get(1).get(2).isPowered(), true);
+    t.checkExpect(lightem1.board.get(3).get(2).isPowered(), true);
+
+  }
+
+  // test that bfs keeps to the radius and leaves power to the power tree
+  void testBfsRadius(Tester t) {
+    LightEmAllEngine engine = new LightEmAllEngine(8, 8, new Random(5));
+    Random clicks = new Random(1);
+    while (engine.power.reached < 64) {
+      engine.turn(engine.hintCell(), engine.hintTurns());
+    }
+    engine.radius = 3;
+    engine.setRadiusMode(true);
+    int powered = engine.board.poweredCount();
+    t.checkExpect(powered < 64, true);
+    engine.bfs();
+    t.checkExpect(engine.board.poweredCount(), powered);
+    engine.verifyPoweredCount();
+    // later rotations still unpower what bfs powered
+    for (int i = 0; i < 50; i++) {
+      engine.rotate(clicks.nextInt(8), clicks.nextInt(8));
+      engine.bfs();
+    }
+    PowerGrid fresh = new PowerGrid(BitBoard.copyOf(engine.board), 0);
+    fresh.limit(3);
+    t.checkExpect(engine.board.poweredCount(), fresh.board.poweredCount());
+  }
+
+  // the list based bfs that LightEmAll2 used before CellBfs, kept to compare against
+  ArrayList<GamePiece> listBfs(LightEmAll2 game) {
+    ArrayList<GamePiece> nodes = new ArrayList<>();
+    ArrayList<GamePiece> visited = new ArrayList<>();
+    nodes.add(game.board.get(game.engine.powerCol).get(game.engine.powerRow));
+    while (!nodes.isEmpty()) {
+      GamePiece curr = nodes.remove(0);
+      if (!visited.contains(curr)) {
+        visited.add(curr);
+        if (curr.top && curr.row > 0 && game.board.get(curr.col).get(curr.row - 1).bottom) {
+          nodes.add(game.board.get(curr.col).get(curr.row - 1));
+        }
+        if (curr.bottom && curr.row < game.height - 1
+            && game.board.get(curr.col).get(curr.row + 1).top) {
+          nodes.add(game.board.get(curr.col).get(curr.row + 1));
+        }
+        if (curr.left && curr.col > 0 && game.board.get(curr.col - 1).get(curr.row).right) {
+          nodes.add(game.board.get(curr.col - 1).get(curr.row));
+        }
+        if (curr.right && curr.col < game.width - 1
+            && game.board.get(curr.col + 1).get(curr.row).left) {
+          nodes.add(game.board.get(curr.col + 1).get(curr.row));
+        }
+      }
+    }
+    return visited;
+  }
 
+  // test that bfs powers exactly the cells the list based search reaches
+  void testBfsMatchesListBfs(Tester t) {
+    Random rand = new Random(21);
+    for (int i = 0; i < 30; i++) {
+      LightEmAll2 game = new LightEmAll2(2 + rand.nextInt(12), 2 + rand.nextInt(12), rand);
+      for (int cell = 0; cell < game.width * game.height; cell++) {
+        game.setPowered(cell, false);
+      }
+      game.bfs();
+      ArrayList<GamePiece> expected = this.listBfs(game);
+      int powered = 0;
+      for (GamePiece gp : game.nodes) {
+        powered += gp.isPowered() ? 1 : 0;
+        t.checkExpect(gp.isPowered(), expected.contains(gp));
+      }
+      t.checkExpect(powered, expected.size());
+      // a second run reuses the same search state
+      t.checkExpect(game.engine.search.run(game, game.index(game.engine.powerCol,
+          game.engine.powerRow)), powered);
+    }
   }
 
   // test onMouseClicked method
@@ -933,29 +1322,63 @@ class LightEmAllExamples2 {
     initData();
 
     // all pieces are powered
-    for (ArrayList<GamePiece> column : lightem1.board) {
-      for (GamePiece piece : column) {
-        piece.powered = true;
-      }
+    for (int cell = 0; cell < 25; cell++) {
+      lightem1.setPowered(cell, true);
     }
     t.checkExpect(lightem1.checkWinCondition(), true);
 
     // no pieces are powered
-    for (ArrayList<GamePiece> column : lightem1.board) {
-      for (GamePiece piece : column) {
-        piece.powered = false;
-      }
+    for (int cell = 0; cell < 25; cell++) {
+      lightem1.setPowered(cell, false);
     }
     t.checkExpect(lightem1.checkWinCondition(), false);
 
     // only one piece is powered
-    lightem1.board.get(2).get(2).powered = true;
+    lightem1.setPowered(lightem1.index(2, 2), true);
     t.checkExpect(lightem1.checkWinCondition(), false);
 
     // only some pieces are powered
-    lightem1.board.get(3).get(3).powered = true;
-    lightem1.board.get(4).get(4).powered = true;
+    lightem1.setPowered(lightem1.index(3, 3), true);
+    lightem1.setPowered(lightem1.index(4, 4), true);
     t.checkExpect(lightem1.checkWinCondition(), false);
+    t.checkExpect(lightem1.poweredCount(), 3);
+  }
+
+  // test the count of powered cells against a full scan
+  void testPoweredCount(Tester t) {
+    initData();
+    t.checkExpect(lightem1.poweredCount(), lightem1.engine.power.reached);
+    Random clicks = new Random(4);
+    for (int i = 0; i < 200; i++) {
+      lightem1.onMouseClicked(new Posn(clicks.nextInt(250), clicks.nextInt(250)));
+      lightem1.engine.verifyPoweredCount();
+    }
+    lightem1.resetBoard();
+    lightem1.engine.verifyPoweredCount();
+
+    // powering a piece behind the count's back is caught
+    GamePiece corner = lightem1.board.get(0).get(0);
+    corner.switchPower(!corner.isPowered());
+    int scanned = lightem1.poweredCount() + (corner.isPowered() ? 1 : -1);
+    try {
+      lightem1.engine.verifyPoweredCount();
+      t.checkExpect("verified", "caught");
+    } catch (IllegalStateException e) {
+      t.checkExpect(e.getMessage(), "the board counts " + lightem1.poweredCount()
+          + " powered cells but has " + scanned);
+    }
+
+    // and on a compact board
+    LightEmAllEngine engine = new LightEmAllEngine(30, 20, new Random(6));
+    for (int i = 0; i < 500; i++) {
+      engine.rotate(clicks.nextInt(30), clicks.nextInt(20));
+    }
+    engine.setRadiusMode(true);
+    engine.verifyPoweredCount();
+    PuzzleSolver.apply(engine, PuzzleSolver.solve(engine.board));
+    engine.setRadiusMode(false);
+    t.checkExpect(engine.board.poweredCount(), 600);
+    t.checkExpect(engine.checkWinCondition(), true);
   }
 
   // test lastScene method
@@ -963,10 +1386,8 @@ class LightEmAllExamples2 {
     initData();
 
     // power up all pieces to trigger a win
-    for (ArrayList<GamePiece> column : lightem1.board) {
-      for (GamePiece piece : column) {
-        piece.powered = true;
-      }
+    for (int cell = 0; cell < 25; cell++) {
+      lightem1.setPowered(cell, true);
     }
 
     // get the expected scene
@@ -1021,15 +1442,220 @@ class LightEmAllExamples2 {
 //    initData();
 //  }
 
-  // test topRep
-  
-  // test generateEdges
-//  void testGenerateEdges(Tester t) {
-//    initData();
-//    lightem3.generateEdges();
-//    t.checkExpect(lightem3.mst, null);
-//  }
-  
+  // test BitBoard
+  void testBitBoard(Tester t) {
+    initData();
+    BitBoard bits = new BitBoard(7, 5);
+    // cells 15 and 16 sit on either side of a long boundary
+    bits.setMask(15, BoardModel.LEFT | BoardModel.BOTTOM);
+    bits.setMask(16, BoardModel.TOP);
+    t.checkExpect(bits.mask(15), BoardModel.LEFT | BoardModel.BOTTOM);
+    t.checkExpect(bits.mask(16), BoardModel.TOP);
+    t.checkExpect(bits.mask(14), 0);
+    bits.setMask(15, BoardModel.RIGHT);
+    t.checkExpect(bits.mask(15), BoardModel.RIGHT);
+    t.checkExpect(bits.mask(16), BoardModel.TOP);
+
+    // rotating a nibble matches rotating a GamePiece
+    bits.rotate(16);
+    t.checkExpect(bits.mask(16), BoardModel.RIGHT);
+    bits.rotate(15);
+    t.checkExpect(bits.mask(15), BoardModel.BOTTOM);
+    bits.rotate(15);
+    t.checkExpect(bits.mask(15), BoardModel.LEFT);
+
+    bits.setPowered(34, true);
+    t.checkExpect(bits.isPowered(34), true);
+    t.checkExpect(bits.isPowered(33), false);
+    bits.setPowered(34, false);
+    t.checkExpect(bits.isPowered(34), false);
+
+    // the GamePiece view of a copied board matches the original pieces
+    BitBoard copy = lightem1.toBitBoard();
+    for (int col = 0; col < 5; col++) {
+      for (int row = 0; row < 5; row++) {
+        t.checkExpect(new GamePiece(copy, col, row), lightem1.board.get(col).get(row));
+      }
+    }
+  }
+
+  // test the neighbors and links of a BoardModel
+  void testBoardModelLinks(Tester t) {
+    initData();
+    // the center of lightem1 connects in every direction
+    int center = lightem1.index(2, 2);
+    t.checkExpect(lightem1.neighbor(center, BoardModel.LEFT), lightem1.index(1, 2));
+    t.checkExpect(lightem1.neighbor(center, BoardModel.BOTTOM), lightem1.index(2, 3));
+    lightem1.setMask(lightem1.index(2, 1), BoardModel.TOP | BoardModel.BOTTOM);
+    lightem1.setMask(lightem1.index(1, 2), BoardModel.TOP | BoardModel.BOTTOM);
+    t.checkExpect(lightem1.board.get(2).get(1).bottom, true);
+    t.checkExpect(lightem1.linked(center, BoardModel.TOP), true);
+    t.checkExpect(lightem1.linked(lightem1.index(2, 1), BoardModel.BOTTOM), true);
+    // (1, 2) is only vertical, so it does not link back to the center
+    t.checkExpect(lightem1.linked(center, BoardModel.LEFT), false);
+    // off the board
+    t.checkExpect(lightem1.neighbor(0, BoardModel.TOP), -1);
+    t.checkExpect(lightem1.neighbor(0, BoardModel.LEFT), -1);
+    t.checkExpect(lightem1.neighbor(lightem1.index(4, 4), BoardModel.RIGHT), -1);
+    t.checkExpect(lightem1.neighbor(lightem1.index(4, 4), BoardModel.BOTTOM), -1);
+    t.checkExpect(BoardModel.opposite(BoardModel.TOP), BoardModel.BOTTOM);
+    t.checkExpect(BoardModel.opposite(BoardModel.LEFT), BoardModel.RIGHT);
+  }
+
+  // test PowerGrid against powering the whole board from scratch after every click
+  void testPowerGridIncremental(Tester t) {
+    LightEmAll2 game = new LightEmAll2(9, 9, new Random(11));
+    Random clicks = new Random(4);
+    for (int i = 0; i < 400; i++) {
+      game.onMouseClicked(new Posn(clicks.nextInt(9) * 50 + 25, clicks.nextInt(9) * 50 + 25));
+      if (i % 40 == 0) {
+        game.onKeyEvent(i % 80 == 0 ? "right" : "down");
+      }
+      BitBoard fresh = game.toBitBoard();
+      new PowerGrid(fresh, fresh.station);
+      boolean same = true;
+      for (int cell = 0; cell < 81; cell++) {
+        same = same && fresh.isPowered(cell) == game.isPowered(cell);
+      }
+      t.checkExpect(same, true);
+    }
+  }
+
+  // test that the headless engine plays the same game as LightEmAll2
+  void testEngineHeadless(Tester t) {
+    LightEmAll2 game = new LightEmAll2(7, 6, new Random(31));
+    LightEmAllEngine headless = new LightEmAllEngine(7, 6, new Random(31));
+    Random clicks = new Random(8);
+    for (int i = 0; i < 60; i++) {
+      int col = clicks.nextInt(7);
+      int row = clicks.nextInt(6);
+      game.onMouseClicked(new Posn(col * 50 + 25, row * 50 + 25));
+      headless.rotate(col, row);
+    }
+    game.onKeyEvent("down");
+    headless.movePowerStation(0, 1);
+    for (int cell = 0; cell < 42; cell++) {
+      t.checkExpect(headless.board.mask(cell), game.mask(cell));
+      t.checkExpect(headless.board.isPowered(cell), game.isPowered(cell));
+    }
+    t.checkExpect(headless.steps, game.engine.steps);
+    t.checkExpect(headless.powerRow, game.engine.powerRow);
+    t.checkExpect(headless.checkWinCondition(), game.checkWinCondition());
+    t.checkExpect(headless.rotate(7, 0), false);
+    t.checkExpect(headless.movePowerStation(1, 1), false);
+  }
+
+  // test the headless engine on a board it is given
+  void testEngineWin(Tester t) {
+    // a straight line whose last tile points the wrong way
+    BitBoard bits = new BitBoard(3, 1);
+    bits.setMask(0, BoardModel.RIGHT);
+    bits.setMask(1, BoardModel.LEFT | BoardModel.RIGHT);
+    bits.setMask(2, BoardModel.TOP);
+    LightEmAllEngine engine = new LightEmAllEngine(bits, 0, 0);
+    t.checkExpect(engine.isPowered(1, 0), true);
+    t.checkExpect(engine.isPowered(2, 0), false);
+    t.checkExpect(engine.checkWinCondition(), false);
+    // top, right, bottom, then left
+    engine.rotate(2, 0);
+    engine.rotate(2, 0);
+    t.checkExpect(engine.checkWinCondition(), false);
+    engine.rotate(2, 0);
+    t.checkExpect(engine.isPowered(2, 0), true);
+    t.checkExpect(engine.checkWinCondition(), true);
+    t.checkExpect(engine.steps, 3);
+    // the station can walk along the wire
+    t.checkExpect(engine.movePowerStation(1, 0), true);
+    t.checkExpect(engine.movePowerStation(0, 1), false);
+    t.checkExpect(engine.powerCol, 1);
+    t.checkExpect(engine.checkWinCondition(), true);
+  }
+
+  // test PowerGrid cutting and restoring power on a small board
+  void testPowerGridRotated(Tester t) {
+    // a straight horizontal line on one row, station on the left
+    BitBoard line = new BitBoard(4, 1);
+    line.setMask(0, BoardModel.RIGHT);
+    line.setMask(1, BoardModel.LEFT | BoardModel.RIGHT);
+    line.setMask(2, BoardModel.LEFT | BoardModel.RIGHT);
+    line.setMask(3, BoardModel.LEFT);
+    PowerGrid grid = new PowerGrid(line, 0);
+    t.checkExpect(line.isPowered(3), true);
+
+    // turning the second cell vertical cuts off everything after it
+    line.rotate(1);
+    grid.rotated(1, BoardModel.LEFT | BoardModel.RIGHT);
+    t.checkExpect(line.isPowered(0), true);
+    t.checkExpect(line.isPowered(1), false);
+    t.checkExpect(line.isPowered(2), false);
+    t.checkExpect(line.isPowered(3), false);
+
+    // turning it back restores the line
+    line.rotate(1);
+    grid.rotated(1, BoardModel.TOP | BoardModel.BOTTOM);
+    t.checkExpect(line.isPowered(3), true);
+    t.checkExpect(grid.parent[3], 2);
+
+    // moving the station re-roots the tree without changing power
+    grid.moveStation(2);
+    t.checkExpect(grid.parent[2], 2);
+    t.checkExpect(grid.parent[1], 2);
+    t.checkExpect(grid.parent[0], 1);
+    t.checkExpect(line.isPowered(0), true);
+  }
+
+  // test UnionFind
+  void testUnionFind(Tester t) {
+    UnionFind uf = new UnionFind(5);
+    // every cell starts as its own representative
+    t.checkExpect(uf.find(3), 3);
+    t.checkExpect(uf.union(0, 1), true);
+    t.checkExpect(uf.union(2, 3), true);
+    t.checkExpect(uf.find(0) == uf.find(1), true);
+    t.checkExpect(uf.find(1) == uf.find(2), false);
+    t.checkExpect(uf.union(1, 3), true);
+    // already joined through 1 - 3
+    t.checkExpect(uf.union(0, 2), false);
+    t.checkExpect(uf.find(4), 4);
+  }
+
+  // test MST builds a spanning tree, every tree edge gives two connectors
+  void testMstSpanning(Tester t) {
+    initData();
+    LightEmAll2 big = new LightEmAll2(40, 30, new Random(7));
+    int ends = 0;
+    for (GamePiece gp : big.nodes) {
+      ends += (gp.left ? 1 : 0) + (gp.right ? 1 : 0) + (gp.top ? 1 : 0) + (gp.bottom ? 1 : 0);
+    }
+    t.checkExpect(ends, 2 * (40 * 30 - 1));
+    t.checkExpect(lightem3.cellIndex(lightem3.board.get(2).get(1)), 7);
+  }
+
+  // test MST on a board one row high, where every edge goes to the right
+  void testMstOneRow(Tester t) {
+    initData();
+    BitBoard bits = new BitBoard(5, 1);
+    LightEmAllEngine.generate(bits, new Random(3));
+    t.checkExpect(bits.mask(0), BoardModel.RIGHT);
+    t.checkExpect(bits.mask(1), BoardModel.LEFT | BoardModel.RIGHT);
+    t.checkExpect(bits.mask(2), BoardModel.LEFT | BoardModel.RIGHT);
+    t.checkExpect(bits.mask(3), BoardModel.LEFT | BoardModel.RIGHT);
+    t.checkExpect(bits.mask(4), BoardModel.LEFT);
+
+    // a line of 6 is 5 long, so the station reaches it all from 3 away
+    LightEmAllEngine engine = new LightEmAllEngine(6, 1, new Random(4));
+    t.checkExpect(engine.radius, 3);
+    // following the hints solves it
+    while (engine.hintCell() != -1) {
+      int cell = engine.hintCell();
+      for (int turn = engine.hintTurns(); turn > 0; turn--) {
+        engine.rotate(cell, 0);
+      }
+    }
+    t.checkExpect(engine.tilesRemaining(), 0);
+    t.checkExpect(engine.checkWinCondition(), true);
+  }
+
   // test validCoor
   boolean testValidCoor(Tester t) {
     initData();
@@ -1063,10 +1689,1035 @@ class LightEmAllExamples2 {
   }
   
   // test compare
+  void testCompWeight(Tester t) {
+    initData();
+    Edge light = new Edge(lightem3.pieceAt(0), lightem3.pieceAt(1), 3);
+    Edge heavy = new Edge(lightem3.pieceAt(0), lightem3.pieceAt(3), 10);
+    t.checkExpect(new CompWeight().compare(light, heavy) < 0, true);
+  }
+
+  // test KruskalEdges
+  void testKruskalEdges(Tester t) {
+    long e = KruskalEdges.pack(39, 1000000, 1000001);
+    t.checkExpect(KruskalEdges.weight(e), 39);
+    t.checkExpect(KruskalEdges.from(e), 1000000);
+    t.checkExpect(KruskalEdges.to(e), 1000001);
+
+    // a 3x2 board has 3 vertical and 4 horizontal edges, each listed once
+    long[] edges = KruskalEdges.sortedEdges(3, 2, new Random(5));
+    t.checkExpect(edges.length, 7);
+    for (int i = 1; i < edges.length; i++) {
+      t.checkExpect(KruskalEdges.weight(edges[i - 1]) <= KruskalEdges.weight(edges[i]), true);
+      t.checkExpect(KruskalEdges.from(edges[i]) < KruskalEdges.to(edges[i]), true);
+    }
+  }
+
+  // test generateEdges
+  void testGenerateEdges(Tester t) {
+    initData();
+    ArrayList<Edge> edges = lightem3.generateEdges();
+    // a 3x3 board has 12 edges between neighbors
+    t.checkExpect(edges.size(), 12);
+    for (int i = 1; i < edges.size(); i++) {
+      t.checkExpect(new CompWeight().compare(edges.get(i - 1), edges.get(i)) <= 0, true);
+    }
+  }
   
   // test Utils
   
+  // test TileCache
+  void testTileCache(Tester t) {
+    TileCache cache = new TileCache(3);
+    int mask = BoardModel.TOP | BoardModel.LEFT;
+    WorldImage first = cache.tileImage(mask, 50, 5, Color.black, false);
+    // asking again gives back the very same image
+    t.checkExpect(cache.tileImage(mask, 50, 5, Color.black, false) == first, true);
+    // and it is drawn as the GamePiece would draw itself
+    t.checkExpect(first,
+        new GamePiece(0, 0, true, false, true, false, false, false)
+            .tileImage(50, 5, Color.black, false));
+    // any part of the key makes a different image
+    t.checkExpect(cache.tileImage(mask, 50, 5, Color.black, true) == first, false);
+    t.checkExpect(cache.tileImage(mask, 50, 5, new Color(255, 230, 0), false) == first, false);
+    t.checkExpect(cache.images.size(), 3);
+    // a fourth image evicts the least recently used one, which is not first
+    cache.tileImage(mask, 50, 5, Color.black, false);
+    cache.tileImage(BoardModel.RIGHT, 40, 5, Color.black, false);
+    t.checkExpect(cache.images.size(), 3);
+    t.checkExpect(cache.tileImage(mask, 50, 5, Color.black, false) == first, true);
+
+    t.checkExpect(TileCache.dequantize(TileCache.quantize(Color.orange.getRGB())),
+        new Color(255, 203, 0));
+    t.checkExpect(TileCache.dequantize(TileCache.quantize(new Color(255, 255, 0).getRGB())),
+        new Color(255, 255, 0));
+  }
+
+  // test WireGradient
+  void testWireGradient(Tester t) {
+    WireGradient gradient = new WireGradient(20, 15);
+    // the station itself is yellow
+    t.checkExpect(gradient.colorAt(3, 4, 3, 4), new Color(255, 255, 0));
+    // 3 columns and 4 rows away is 5 tiles
+    t.checkExpect(gradient.colorAt(6, 0, 3, 4), new Color(255, 130, 0));
+    t.checkExpect(gradient.colorAt(0, 8, 3, 4), new Color(255, 130, 0));
+    // sqrt(2) rounds down to 1
+    t.checkExpect(gradient.colorAt(4, 5, 3, 4), new Color(255, 230, 0));
+    // far away wires stay red instead of going below 0
+    t.checkExpect(gradient.colorAt(19, 14, 0, 0), new Color(255, 0, 0));
+    // colors come from the shared palette
+    t.checkExpect(gradient.colorAt(6, 0, 3, 4) == gradient.colorAt(0, 8, 3, 4), true);
+  }
+
   // test makeScene
+  void testMakeScene(Tester t) {
+    initData();
+    WorldScene first = lightem1.makeScene();
+    // nothing happened, so the same tiles are shown again, in a scene of its own
+    WorldScene again = lightem1.makeScene();
+    t.checkExpect(again == first, false);
+    t.checkExpect(again, first);
+    // drawing on a frame does not change the next one
+    first.placeImageXY(new TextImage("scribble", 20, FontStyle.BOLD, Color.RED), 100, 100);
+    t.checkExpect(lightem1.makeScene(), again);
+    WorldImage corner = lightem1.frameTiles[lightem1.index(0, 0)];
+    WorldImage far = lightem1.frameTiles[lightem1.index(4, 4)];
+
+    // rotating the corner only gives the corner a new image
+    lightem1.onMouseClicked(new Posn(25, 25));
+    WorldScene second = lightem1.makeScene();
+    t.checkExpect(second == first, false);
+    t.checkExpect(lightem1.frameTiles[lightem1.index(4, 4)] == far, true);
+    t.checkExpect(lightem1.frameTiles[lightem1.index(0, 0)] == corner, false);
+
+    // tiles are placed straight at their pixel positions
+    WorldScene expected = new WorldScene(500, 500);
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 5; col++) {
+        expected.placeImageXY(lightem1.frameTiles[lightem1.index(col, row)], col * 50 + 25,
+            row * 50 + 25);
+      }
+    }
+    expected.placeImageXY(
+        new TextImage("WELCOME TO POWER LINE!", 15, FontStyle.BOLD, Color.BLACK), 125, 260);
+    expected.placeImageXY(
+        new TextImage("made by : livia & gayatri", 15, FontStyle.BOLD, Color.darkGray), 125, 280);
+    expected.placeImageXY(
+        new TextImage("click r to restart the game", 18, FontStyle.BOLD, Color.GRAY), 125, 300);
+    expected.placeImageXY(
+        new TextImage("amount of steps: 1", 15, FontStyle.BOLD, Color.BLACK), 125, 350);
+    t.checkExpect(second, expected);
+
+    // the game's other moves give the corner a new image too, without an event
+    WorldImage turned = lightem1.frameTiles[lightem1.index(0, 0)];
+    t.checkExpect(lightem1.undo(), true);
+    lightem1.makeScene();
+    t.checkExpect(lightem1.frameTiles[lightem1.index(0, 0)] == turned, false);
+    t.checkExpect(lightem1.redo(), true);
+    lightem1.makeScene();
+    t.checkExpect(lightem1.frameTiles[lightem1.index(0, 0)] == turned, true);
+  }
+
+  // test PuzzleSolver on boards that can be won
+  void testSolve(Tester t) {
+    initData();
+    byte[] turns = PuzzleSolver.solve(lightem2);
+    t.checkExpect(turns.length, 25);
+    PuzzleSolver.apply(lightem2.engine, turns);
+    t.checkExpect(lightem2.checkWinCondition(), true);
+
+    // a bigger board, searched on a pool of its own
+    LightEmAllEngine engine = new LightEmAllEngine(40, 30, new Random(5));
+    ForkJoinPool pool = new ForkJoinPool(2);
+    turns = PuzzleSolver.solve(engine.board, pool);
+    pool.shutdown();
+    PuzzleSolver.apply(engine, turns);
+    t.checkExpect(engine.checkWinCondition(), true);
+    int total = 0;
+    for (byte turn : turns) {
+      total += turn;
+    }
+    t.checkExpect(engine.steps, total);
+  }
+
+  // test PuzzleSolver on boards that cannot be won
+  void testSolveImpossible(Tester t) {
+    // two cells with no wires can never be connected
+    t.checkExpect(PuzzleSolver.solve(new BitBoard(2, 1)), null);
+
+    // four corners can only be laid out as a loop
+    BitBoard corners = new BitBoard(2, 2);
+    for (int cell = 0; cell < 4; cell++) {
+      corners.setMask(cell, BoardModel.LEFT | BoardModel.TOP);
+    }
+    t.checkExpect(PuzzleSolver.solve(corners), null);
+
+    // a single line of three fits only one way
+    BitBoard line = new BitBoard(3, 1);
+    line.setMask(0, BoardModel.TOP);
+    line.setMask(1, BoardModel.TOP | BoardModel.BOTTOM);
+    line.setMask(2, BoardModel.LEFT);
+    t.checkExpect(PuzzleSolver.solve(line), new byte[] {1, 1, 0});
+  }
+
+  // test counting solutions and rewiring boards until they have one
+  void testUniqueness(Tester t) {
+    BitBoard line = new BitBoard(3, 1);
+    line.setMask(0, BoardModel.TOP);
+    line.setMask(1, BoardModel.TOP | BoardModel.BOTTOM);
+    line.setMask(2, BoardModel.LEFT);
+    t.checkExpect(PuzzleSolver.countSolutions(line, 2), 1);
+    t.checkExpect(PuzzleSolver.isUnique(line), true);
+    t.checkExpect(PuzzleSolver.countSolutions(new BitBoard(2, 1), 2), 0);
+
+    // a plain Kruskal board this big has more than one way to win
+    BitBoard bits = new BitBoard(50, 50);
+    Random rand = new Random(0);
+    LightEmAllEngine.generate(bits, rand);
+    t.checkExpect(PuzzleSolver.countSolutions(bits, 2), 2);
+    t.checkExpect(PuzzleSolver.countSolutions(bits, 1), 1);
+
+    // rewiring keeps it a spanning tree, but one that only fits one way
+    t.checkExpect(PuzzleSolver.makeUnique(bits, rand, 20), true);
+    t.checkExpect(PuzzleSolver.isUnique(bits), true);
+    t.checkExpect(new LightEmAllEngine(bits, 0, 0).checkWinCondition(), true);
+
+    // boards from the engine are generated unique to begin with
+    LightEmAllEngine engine = new LightEmAllEngine(40, 40, new Random(2));
+    t.checkExpect(PuzzleSolver.isUnique(engine.board), true);
+  }
+
+  // test that batches come out the same on any number of threads
+  void testBatchGenerator(Tester t) {
+    BatchGenerator generator = new BatchGenerator(8, 6, 42);
+    PackedBoards serial = new PackedBoards(8, 6, 11);
+    ForkJoinPool one = new ForkJoinPool(1);
+    generator.generate(11, one, serial);
+    one.shutdown();
+    PackedBoards parallel = new PackedBoards(8, 6, 11);
+    ForkJoinPool three = new ForkJoinPool(3);
+    generator.generate(11, three, parallel);
+    three.shutdown();
+    t.checkExpect(parallel.words, serial.words);
+    t.checkExpect(serial.count(), 11);
+    t.checkExpect(serial.stride, 3);
+
+    // every board is a puzzle with one solution, and they are not all the same
+    for (int i = 0; i < 11; i++) {
+      t.checkExpect(PuzzleSolver.isUnique(serial.board(i)), true);
+    }
+    t.checkExpect(java.util.Arrays.equals(serial.board(0).connectors,
+        serial.board(1).connectors), false);
+
+    // another seed gives other boards
+    PackedBoards other = new PackedBoards(8, 6, 11);
+    new BatchGenerator(8, 6, 43).generate(11, ForkJoinPool.commonPool(), other);
+    t.checkExpect(java.util.Arrays.equals(other.words, serial.words), false);
+  }
+
+  // test the diameter search and powering within the station's radius
+  void testRadius(Tester t) {
+    // a straight line whose last tile points the wrong way
+    BitBoard bits = new BitBoard(4, 1);
+    bits.setMask(0, BoardModel.RIGHT);
+    bits.setMask(1, BoardModel.LEFT | BoardModel.RIGHT);
+    bits.setMask(2, BoardModel.LEFT | BoardModel.RIGHT);
+    bits.setMask(3, BoardModel.TOP);
+    CellBfs search = new CellBfs(4);
+    t.checkExpect(search.farthest(bits, 1), 2);
+    t.checkExpect(search.depth, 1);
+
+    // the radius is not known until the wires reach every cell
+    LightEmAllEngine engine = new LightEmAllEngine(bits, 0, 0);
+    t.checkExpect(engine.radius, 0);
+    engine.setRadiusMode(true);
+    t.checkExpect(engine.isPowered(2, 0), true);
+    engine.rotate(3, 0);
+    engine.rotate(3, 0);
+    engine.rotate(3, 0);
+    t.checkExpect(search.farthest(bits, 0), 3);
+    t.checkExpect(search.depth, 3);
+    t.checkExpect(engine.radius, 2);
+
+    // now the last cell is too far from the station
+    t.checkExpect(engine.isPowered(2, 0), true);
+    t.checkExpect(engine.isPowered(3, 0), false);
+    t.checkExpect(engine.checkWinCondition(), false);
+    t.checkExpect(engine.power.reached, 4);
+
+    // but not from one cell over
+    engine.movePowerStation(1, 0);
+    t.checkExpect(engine.isPowered(3, 0), true);
+    t.checkExpect(engine.checkWinCondition(), true);
+    engine.movePowerStation(-1, 0);
+    t.checkExpect(engine.isPowered(3, 0), false);
+
+    // cutting the line and joining it again keeps the depths right
+    engine.rotate(1, 0);
+    t.checkExpect(engine.isPowered(1, 0), false);
+    t.checkExpect(engine.power.reached, 1);
+    engine.rotate(1, 0);
+    t.checkExpect(engine.isPowered(2, 0), true);
+    t.checkExpect(engine.isPowered(3, 0), false);
+
+    engine.setRadiusMode(false);
+    t.checkExpect(engine.checkWinCondition(), true);
+
+    // the radius of a new board comes from before it was scrambled
+    initData();
+    t.checkExpect(lightem1.engine.radius > 0, true);
+    LightEmAllEngine solved = new LightEmAllEngine(12, 9, new Random(3));
+    BitBoard copy = BitBoard.copyOf(solved.board);
+    PuzzleSolver.apply(new LightEmAllEngine(copy, 0, 0), PuzzleSolver.solve(copy));
+    t.checkExpect(LightEmAllEngine.effectiveRadius(copy, new CellBfs(108)), solved.radius);
+  }
+
+  // test that a reset takes its radius from the fixed board
+  void testResetRadius(Tester t) {
+    LightEmAll2 game = new LightEmAll2(9, 9, new Random(1));
+    game.engine.setRadiusMode(true);
+    game.resetBoard();
+    t.checkExpect(game.engine.radius, 9);
+    t.checkExpect(game.engine.power.limit, 9);
+    PowerGrid fresh = new PowerGrid(game.toBitBoard(), 0);
+    fresh.limit(9);
+    t.checkExpect(game.poweredCount(), fresh.board.poweredCount());
+  }
+
+  // test that power within a limit follows the shortest wires when loops close
+  void testRadiusShortcut(Tester t) {
+    // a ring down both columns, open at the top right
+    BitBoard bits = new BitBoard(2, 6);
+    bits.setMask(0, BoardModel.RIGHT | BoardModel.BOTTOM);
+    bits.setMask(5, BoardModel.TOP | BoardModel.RIGHT);
+    bits.setMask(6, BoardModel.RIGHT | BoardModel.BOTTOM);
+    bits.setMask(11, BoardModel.LEFT | BoardModel.TOP);
+    for (int row = 1; row < 5; row++) {
+      bits.setMask(row, BoardModel.TOP | BoardModel.BOTTOM);
+      bits.setMask(6 + row, BoardModel.TOP | BoardModel.BOTTOM);
+    }
+    PowerGrid grid = new PowerGrid(bits, 0);
+    // the depths are only kept while there is a limit
+    t.checkExpect(grid.depth, null);
+    grid.limit(3);
+    t.checkExpect(grid.depth.length, 12);
+    t.checkExpect(grid.board.poweredCount(), 4);
+    // closing the ring makes the right column a shortcut
+    bits.setMask(6, BoardModel.LEFT | BoardModel.BOTTOM);
+    grid.rotated(6, BoardModel.RIGHT | BoardModel.BOTTOM);
+    t.checkExpect(bits.poweredCount(), 7);
+    t.checkExpect(grid.depth[8], 3);
+    t.checkExpect(grid.parent[6], 0);
+    PowerGrid fresh = new PowerGrid(BitBoard.copyOf(bits), 0);
+    fresh.limit(3);
+    t.checkExpect(fresh.board.poweredCount(), 7);
+    grid.limit(PowerGrid.UNLIMITED);
+    t.checkExpect(grid.depth, null);
+    t.checkExpect(bits.poweredCount(), 12);
+
+    // random rotations and moves on a board with loops always power what a
+    // fresh search does
+    LightEmAllEngine engine = new LightEmAllEngine(9, 7, new Random(6));
+    engine.radius = 4;
+    engine.setRadiusMode(true);
+    Random clicks = new Random(3);
+    boolean same = true;
+    for (int i = 0; i < 400; i++) {
+      if (i % 10 == 0) {
+        engine.movePowerStation(clicks.nextInt(3) - 1, 0);
+      } else {
+        engine.rotate(clicks.nextInt(9), clicks.nextInt(7));
+      }
+      PowerGrid check = new PowerGrid(BitBoard.copyOf(engine.board), engine.power.station);
+      check.limit(engine.power.limit);
+      for (int cell = 0; cell < 63; cell++) {
+        same = same && engine.board.isPowered(cell) == check.board.isPowered(cell)
+            && (engine.power.parent[cell] == -1
+              || engine.power.depth[cell] == check.depth[cell]);
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // test writing boards to files and mapping them back
+  void testBoardFile(Tester t) {
+    try {
+      java.nio.file.Path path = java.nio.file.Files.createTempFile("board", ".lea");
+      LightEmAllEngine engine = new LightEmAllEngine(5, 3, new Random(9));
+      byte[] solution = PuzzleSolver.solve(engine.board);
+      BoardFile.write(path, engine.board, 9, 0, 0, solution);
+      t.checkExpect(java.nio.file.Files.size(path), 32L + 8 + 4);
+
+      MappedBoard mapped = BoardFile.load(path);
+      t.checkExpect(mapped.width(), 5);
+      t.checkExpect(mapped.height(), 3);
+      t.checkExpect(mapped.seed, 9L);
+      t.checkExpect(mapped.stationCol, 0);
+      boolean same = true;
+      for (int cell = 0; cell < 15; cell++) {
+        same = same && mapped.mask(cell) == engine.board.mask(cell)
+            && mapped.solutionTurns(cell) == solution[cell];
+      }
+      t.checkExpect(same, true);
+      t.checkExpect(mapped.toBitBoard().connectors, ((BitBoard) engine.board).connectors);
+
+      // the mapped board can be played, without the file changing
+      LightEmAllEngine replay = new LightEmAllEngine(mapped, mapped.stationCol,
+          mapped.stationRow);
+      for (int cell = 0; cell < 15; cell++) {
+        for (int i = 0; i < mapped.solutionTurns(cell); i++) {
+          replay.rotate(cell / 3, cell % 3);
+        }
+      }
+      t.checkExpect(replay.checkWinCondition(), true);
+      t.checkExpect(BoardFile.load(path).mask(4), engine.board.mask(4));
+
+      // boards made of GamePieces are written cell by cell, here without a solution
+      initData();
+      BoardFile.write(path, lightem1, 3, 2, 2, null);
+      MappedBoard pieces = BoardFile.load(path);
+      t.checkExpect(pieces.solution, null);
+      t.checkExpect(pieces.solutionTurns(0), -1);
+      t.checkExpect(pieces.mask(lightem1.index(1, 3)), lightem1.mask(lightem1.index(1, 3)));
+      t.checkExpect(pieces.mask(24), lightem1.mask(24));
+      t.checkExpect(pieces.toBitBoard().mask(24), lightem1.mask(24));
+
+      java.nio.file.Files.write(path, new byte[40]);
+      try {
+        BoardFile.load(path);
+        t.checkExpect("loaded", "not a board file");
+      } catch (java.io.IOException e) {
+        t.checkExpect(e.getMessage(), "not a board file: " + path);
+      }
+
+      // a header whose cells do not fit in an int
+      java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(40);
+      header.putInt(BoardFile.MAGIC).putInt(65536).putInt(65536);
+      java.nio.file.Files.write(path, header.array());
+      try {
+        BoardFile.load(path);
+        t.checkExpect("loaded", "too big");
+      } catch (java.io.IOException e) {
+        t.checkExpect(e.getMessage(), "not a board size: 65536 x 65536 in " + path);
+      }
+      java.nio.file.Files.delete(path);
+    } catch (java.io.IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test taking moves back and making them again
+  void testUndoRedo(Tester t) {
+    // a straight line whose last tile points the wrong way
+    BitBoard bits = new BitBoard(3, 1);
+    bits.setMask(0, BoardModel.RIGHT);
+    bits.setMask(1, BoardModel.LEFT | BoardModel.RIGHT);
+    bits.setMask(2, BoardModel.TOP);
+    LightEmAllEngine engine = new LightEmAllEngine(bits, 0, 0);
+    t.checkExpect(engine.undo(), false);
+    engine.rotate(2, 0);
+    engine.rotate(2, 0);
+    engine.rotate(2, 0);
+    t.checkExpect(engine.checkWinCondition(), true);
+    t.checkExpect(engine.undo(), true);
+    t.checkExpect(bits.mask(2), BoardModel.BOTTOM);
+    t.checkExpect(engine.isPowered(2, 0), false);
+    t.checkExpect(engine.steps, 2);
+    t.checkExpect(engine.redo(), true);
+    t.checkExpect(engine.redo(), false);
+    t.checkExpect(engine.checkWinCondition(), true);
+    t.checkExpect(engine.steps, 3);
+
+    // undoing the middle cuts the end off, redoing joins it back
+    engine.rotate(1, 0);
+    t.checkExpect(engine.isPowered(2, 0), false);
+    engine.undo();
+    t.checkExpect(engine.isPowered(2, 0), true);
+    // a new move forgets the one taken back
+    engine.undo();
+    engine.rotate(0, 0);
+    t.checkExpect(engine.redo(), false);
+    t.checkExpect(engine.journal.size, 3);
+
+    // through the keys of the game
+    initData();
+    int mask = lightem1.mask(0);
+    lightem1.onMouseClicked(new Posn(25, 25));
+    lightem1.onKeyEvent("u");
+    t.checkExpect(lightem1.mask(0), mask);
+    t.checkExpect(lightem1.engine.steps, 0);
+    lightem1.onKeyEvent("y");
+    t.checkExpect(lightem1.mask(0), BoardModel.rotateMask(mask));
+    t.checkExpect(lightem1.engine.steps, 1);
+  }
+
+  // test MoveJournal on its own
+  void testMoveJournal(Tester t) {
+    MoveJournal journal = new MoveJournal(5);
+    t.checkExpect(journal.capacity, 8);
+    t.checkExpect(MoveJournal.cell(MoveJournal.encode(1234567, 3)), 1234567);
+    t.checkExpect(MoveJournal.turns(MoveJournal.encode(1234567, 3)), 3);
+
+    // only the newest eight are kept
+    for (int cell = 0; cell < 20; cell++) {
+      journal.record(cell, 1);
+    }
+    t.checkExpect(journal.size, 8);
+    t.checkExpect(journal.moves.length, 8);
+    int undone = 0;
+    while (journal.canUndo()) {
+      t.checkExpect(MoveJournal.cell(journal.undo()), 19 - undone);
+      undone++;
+    }
+    t.checkExpect(undone, 8);
+    t.checkExpect(MoveJournal.cell(journal.redo()), 12);
+
+    // it comes back the same from bytes, or with just the newest moves
+    byte[] bytes = journal.toBytes();
+    t.checkExpect(bytes.length, 8 + 4 * 8);
+    MoveJournal copy = MoveJournal.fromBytes(bytes, 16);
+    t.checkExpect(copy.size, 8);
+    t.checkExpect(copy.done, 1);
+    t.checkExpect(MoveJournal.cell(copy.redo()), 13);
+    t.checkExpect(MoveJournal.fromBytes(bytes, 16).toBytes(), bytes);
+    MoveJournal small = MoveJournal.fromBytes(bytes, 4);
+    t.checkExpect(small.size, 4);
+    t.checkExpect(small.done, 0);
+    t.checkExpect(MoveJournal.cell(small.redo()), 16);
+    journal.clear();
+    t.checkExpect(journal.canUndo() || journal.canRedo(), false);
+  }
+
+  // test hints toward the solved board
+  void testHints(Tester t) {
+    initData();
+    // following the hints wins the game
+    int remaining = lightem2.tilesRemaining();
+    int clicks = 0;
+    while (lightem2.hintPiece() != null) {
+      GamePiece piece = lightem2.hintPiece();
+      int turns = lightem2.hintTurns();
+      for (int i = 0; i < turns; i++) {
+        lightem2.onMouseClicked(new Posn(piece.col * 50 + 25, piece.row * 50 + 25));
+        clicks++;
+      }
+      t.checkExpect(lightem2.tilesRemaining(), --remaining);
+    }
+    t.checkExpect(lightem2.checkWinCondition(), true);
+    t.checkExpect(lightem2.hintTurns(), 0);
+    t.checkExpect(lightem2.engine.steps, clicks);
+
+    // a wrong turn shows up as one more tile to fix, with the rest of its turns
+    lightem2.onMouseClicked(new Posn(25, 25));
+    if (lightem2.mask(0) == BoardModel.rotateMask(BoardModel.rotateMask(lightem2.mask(0)))) {
+      // a straight piece is back where it belongs after two turns
+      t.checkExpect(lightem2.hintTurns(), 1);
+    } else {
+      t.checkExpect(lightem2.hintTurns(), 3);
+    }
+    t.checkExpect(lightem2.tilesRemaining(), 1);
+    t.checkExpect(lightem2.hintPiece(), lightem2.board.get(0).get(0));
+
+    // the fixed board knows its solution too, also after a reset
+    t.checkExpect(lightem1.tilesRemaining() > 0, true);
+    lightem1.resetBoard();
+    int counted = 0;
+    for (int cell = 0; cell < 25; cell++) {
+      if (lightem1.engine.hints.need[cell] != 0) {
+        counted++;
+      }
+    }
+    t.checkExpect(lightem1.tilesRemaining(), counted);
+
+    // the tracker hands out the cells needing the fewest turns first
+    HintTracker tracker = new HintTracker(new byte[] {BoardModel.LEFT, BoardModel.TOP, 0});
+    tracker.update(0, BoardModel.TOP);
+    tracker.update(1, BoardModel.LEFT);
+    t.checkExpect(tracker.hintCell(), 1);
+    t.checkExpect(tracker.hintTurns(), 1);
+    tracker.update(1, BoardModel.TOP);
+    t.checkExpect(tracker.hintCell(), 0);
+    t.checkExpect(tracker.hintTurns(), 3);
+    tracker.update(0, BoardModel.LEFT);
+    t.checkExpect(tracker.hintCell(), -1);
+    t.checkExpect(tracker.remaining(), 0);
+
+    // without a solution there are no hints
+    BitBoard bits = new BitBoard(2, 1);
+    LightEmAllEngine engine = new LightEmAllEngine(bits, 0, 0);
+    t.checkExpect(engine.hintCell(), -1);
+    t.checkExpect(engine.tilesRemaining(), -1);
+  }
+
+  // test the latency histograms and the metrics switch
+  void testMetrics(Tester t) {
+    LatencyHistogram histogram = new LatencyHistogram("test");
+    t.checkExpect(histogram.valueAtPercentile(50), 0L);
+    for (long value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+    t.checkExpect(histogram.count(), 100L);
+    t.checkExpect(histogram.mean(), 50.5);
+    t.checkExpect(histogram.max(), 100L);
+    // exact below 64, within a bucket above
+    t.checkExpect(histogram.valueAtPercentile(50), 50L);
+    t.checkExpect(histogram.valueAtPercentile(90), 91L);
+    t.checkExpect(histogram.valueAtPercentile(100), 100L);
+    t.checkExpect(LatencyHistogram.bucket(63), 63);
+    t.checkExpect(LatencyHistogram.bucket(64), 64);
+    t.checkExpect(LatencyHistogram.bucket(65), 64);
+    t.checkExpect(LatencyHistogram.highestIn(LatencyHistogram.bucket(1000000)) >= 1000000, true);
+    t.checkExpect(LatencyHistogram.bucket(Long.MAX_VALUE) < LatencyHistogram.BUCKETS, true);
+    histogram.reset();
+    t.checkExpect(histogram.count(), 0L);
+
+    // nothing is timed while it is off
+    initData();
+    GameMetrics.setEnabled(false);
+    GameMetrics.reset();
+    lightem1.onMouseClicked(new Posn(25, 25));
+    t.checkExpect(GameMetrics.MOUSE_CLICKED.count(), 0L);
+    t.checkExpect(GameMetrics.start(), GameMetrics.OFF);
+
+    // each handler and the phases inside it once it is on
+    GameMetrics.setEnabled(true);
+    lightem1.onMouseClicked(new Posn(25, 25));
+    lightem1.onKeyEvent("u");
+    lightem1.makeScene();
+    lightem1.bfs();
+    t.checkExpect(GameMetrics.MOUSE_CLICKED.count(), 1L);
+    t.checkExpect(GameMetrics.KEY_EVENT.count(), 1L);
+    t.checkExpect(GameMetrics.MAKE_SCENE.count(), 1L);
+    t.checkExpect(GameMetrics.RENDER.count(), 1L);
+    t.checkExpect(GameMetrics.BFS.count(), 1L);
+    t.checkExpect(GameMetrics.ROTATE.count(), 2L);
+    t.checkExpect(GameMetrics.PROPAGATE.count(), 2L);
+    t.checkExpect(GameMetrics.WIN_CHECK.count() >= 1, true);
+    t.checkExpect(GameMetrics.dump().contains("onMouseClicked"), true);
+    // generating a board the way the game does times the spanning tree
+    t.checkExpect(GameMetrics.MST.count(), 0L);
+    new LightEmAll2(4, 4, new Random(1));
+    t.checkExpect(GameMetrics.MST.count() >= 1, true);
+
+    // and through JMX
+    GameMetrics.registerMBeans();
+    GameMetrics.registerMBeans();
+    try {
+      javax.management.MBeanServer server =
+          java.lang.management.ManagementFactory.getPlatformMBeanServer();
+      javax.management.ObjectName clicks =
+          new javax.management.ObjectName("LightEmAll:type=Latency,name=onMouseClicked");
+      t.checkExpect(server.getAttribute(clicks, "Count"), 1L);
+      javax.management.ObjectName control =
+          new javax.management.ObjectName("LightEmAll:type=Metrics");
+      server.setAttribute(control, new javax.management.Attribute("Enabled", false));
+      t.checkExpect(GameMetrics.enabled, false);
+      server.invoke(control, "reset", null, null);
+      t.checkExpect(server.getAttribute(clicks, "Count"), 0L);
+    } catch (javax.management.JMException e) {
+      t.checkExpect(e, null);
+    }
+    GameMetrics.setEnabled(false);
+  }
+
+  // test the off-heap board
+  void testDirectBoard(Tester t) {
+    DirectBoard direct = new DirectBoard(7, 5);
+    t.checkExpect(direct.connectors.isDirect(), true);
+    t.checkExpect(direct.connectors.capacity(), 18);
+    t.checkExpect(direct.powered.capacity(), 5);
+    direct.setMask(34, BoardModel.LEFT | BoardModel.BOTTOM);
+    direct.setMask(33, BoardModel.TOP);
+    t.checkExpect(direct.mask(34), BoardModel.LEFT | BoardModel.BOTTOM);
+    t.checkExpect(direct.mask(33), BoardModel.TOP);
+    direct.setPowered(34, true);
+    direct.setPowered(34, true);
+    t.checkExpect(direct.isPowered(34), true);
+    t.checkExpect(direct.isPowered(33), false);
+    t.checkExpect(direct.poweredCount(), 1);
+
+    // the same game as on the heap, from generating to rotating and bfs
+    LightEmAllEngine offHeap = new LightEmAllEngine(new DirectBoard(9, 8), new Random(12));
+    LightEmAllEngine onHeap = new LightEmAllEngine(new BitBoard(9, 8), new Random(12));
+    Random clicks = new Random(2);
+    for (int i = 0; i < 50; i++) {
+      int col = clicks.nextInt(9);
+      int row = clicks.nextInt(8);
+      offHeap.rotate(col, row);
+      onHeap.rotate(col, row);
+    }
+    offHeap.bfs();
+    onHeap.bfs();
+    boolean same = true;
+    for (int cell = 0; cell < 72; cell++) {
+      same = same && offHeap.board.mask(cell) == onHeap.board.mask(cell)
+          && offHeap.board.isPowered(cell) == onHeap.board.isPowered(cell);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(offHeap.board.poweredCount(), onHeap.board.poweredCount());
+
+    // it is laid out like a board file
+    try {
+      java.nio.file.Path path = java.nio.file.Files.createTempFile("direct", ".lea");
+      BoardFile.write(path, offHeap.board, 12, 0, 0, null);
+      t.checkExpect(BoardFile.load(path).toBitBoard().connectors,
+          ((BitBoard) onHeap.board).connectors);
+      java.nio.file.Files.delete(path);
+    } catch (java.io.IOException e) {
+      t.checkExpect(e, null);
+    }
+
+    try {
+      new DirectBoard(50000, 50000);
+      t.checkExpect("allocated", "too many cells");
+    } catch (IllegalArgumentException e) {
+      t.checkExpect(e.getMessage(),
+          "a board can have at most 2147483647 cells, not 50000 x 50000");
+    }
+  }
+
+  // test scrolling, zooming, drawing only what is in the window and clicking through it
+  void testViewport(Tester t) {
+    Viewport view = new Viewport(500, 500, 30, 20);
+    t.checkExpect(view.tileSize(), 50);
+    t.checkExpect(view.firstCol(), 0);
+    t.checkExpect(view.endCol(), 10);
+    t.checkExpect(view.screenX(3), 175);
+
+    // scrolling stops at the edges of the board
+    view.pan(-100, -100);
+    t.checkExpect(view.x, 0);
+    t.checkExpect(view.y, 0);
+    view.pan(10000, 10000);
+    t.checkExpect(view.x, 1000);
+    t.checkExpect(view.y, 500);
+    view.pan(-1025, -475);
+    t.checkExpect(view.x, 0);
+    t.checkExpect(view.y, 25);
+    // a tile half off the top is still drawn
+    t.checkExpect(view.firstRow(), 0);
+    t.checkExpect(view.endRow(), 11);
+    t.checkExpect(view.screenY(0), 0);
+    t.checkExpect(view.rowAt(0), 0);
+    t.checkExpect(view.rowAt(30), 1);
+
+    // zooming keeps the middle of the window in place
+    view.zoomBy(1);
+    t.checkExpect(view.tileSize(), 80);
+    t.checkExpect(view.x, 150);
+    t.checkExpect(view.y, 190);
+    view.zoomBy(10);
+    t.checkExpect(view.tileSize(), 120);
+    view.zoomBy(-10);
+    t.checkExpect(view.tileSize(), 10);
+    t.checkExpect(view.x, 0);
+    t.checkExpect(view.y, 0);
+    // the whole board fits, and clicks past it hit nothing
+    t.checkExpect(view.endCol(), 30);
+    t.checkExpect(view.colAt(299), 29);
+    t.checkExpect(view.colAt(300), -1);
+    t.checkExpect(view.rowAt(250), -1);
+
+    // only the tiles in the window are drawn
+    LightEmAll2 big = new LightEmAll2(40, 40, new Random(3));
+    big.makeScene();
+    t.checkExpect(big.frameTiles[big.index(9, 9)] == null, false);
+    t.checkExpect(big.frameTiles[big.index(10, 9)] == null, true);
+    t.checkExpect(big.frameTiles[big.index(39, 39)] == null, true);
+
+    // clicks go through the viewport to the tile under the mouse
+    big.onKeyEvent("d");
+    big.onKeyEvent("s");
+    t.checkExpect(big.viewport().x, 50);
+    t.checkExpect(big.viewport().y, 50);
+    int before = big.engine.board.mask(big.index(1, 1));
+    big.onMouseClicked(new Posn(25, 25));
+    t.checkExpect(big.engine.board.mask(big.index(1, 1)), BoardModel.rotateMask(before));
+
+    // dragging the board left and up scrolls right and down
+    big.onMousePressed(new Posn(300, 300));
+    big.onMouseReleased(new Posn(100, 250));
+    t.checkExpect(big.viewport().x, 250);
+    t.checkExpect(big.viewport().y, 100);
+    big.makeScene();
+    t.checkExpect(big.frameTiles[big.index(14, 11)] == null, false);
+    // a click without moving does not scroll
+    big.onMousePressed(new Posn(10, 10));
+    big.onMouseReleased(new Posn(10, 10));
+    t.checkExpect(big.viewport().x, 250);
+
+    big.onKeyEvent("-");
+    t.checkExpect(big.viewport().tileSize(), 30);
+  }
+
+  // test the game server's protocol, straight and over sockets under load
+  void testGameServer(Tester t) {
+    try (GameServer server = new GameServer(0)) {
+      // the protocol, straight through a session
+      GameSession session = new GameSession(server);
+      t.checkExpect(session.handle("STATE"), "ERR no game, start one with NEW width height seed");
+      t.checkExpect(session.handle("NEW 0 3 1"), "ERR a game is 1 to 40000 cells, not 0 x 3");
+      t.checkExpect(session.handle("NEW 201 200 1"),
+          "ERR a game is 1 to 40000 cells, not 201 x 200");
+      t.checkExpect(session.handle("NEW 4294967296 4294967296 1"),
+          "ERR out of range: 4294967296");
+      t.checkExpect(session.handle("NEW 3 x 1"), "ERR not a number: x");
+      t.checkExpect(session.handle("new 3 3 7"), "OK 1");
+      LightEmAllEngine same = new LightEmAllEngine(3, 3, new Random(7));
+      t.checkExpect(session.handle("BOARD"), "OK " + session.board());
+      t.checkExpect(session.game.board.mask(4), same.board.mask(4));
+      same.rotate(1, 2);
+      t.checkExpect(session.handle("ROTATE 1 2"), "OK 3 3 0 0 1 "
+          + same.board.poweredCount() + " " + same.checkWinCondition());
+      t.checkExpect(session.handle("ROTATE 3 0"), "ERR off the board");
+      // a column that wraps around to 0 as an int is not column 0
+      t.checkExpect(session.handle("ROTATE 4294967296 0"), "ERR out of range: 4294967296");
+      t.checkExpect(session.handle("BATCH 0 4294967297 1"), "ERR out of range: 4294967297");
+      t.checkExpect(session.handle("MOVE SIDEWAYS"), "ERR no direction SIDEWAYS");
+      t.checkExpect(session.handle("UNDO").startsWith("OK 3 3 0 0 0 "), true);
+      t.checkExpect(session.handle("UNDO"), "ERR nothing to undo");
+      t.checkExpect(session.handle("JUMP"), "ERR unknown command JUMP");
+      // the full circle is not a step
+      t.checkExpect(session.handle("BATCH 0 0 4 2 1 7").startsWith("OK 3 3 0 0 3 "), true);
+      t.checkExpect(session.handle("BATCH 0 0"), "ERR BATCH needs col row turns triples");
+      t.checkExpect(session.handle("BATCH" + " 0 0 1".repeat(GameServer.MAX_BATCH + 1)),
+          "ERR a BATCH is at most 4096 triples, not 4097");
+      t.checkExpect(session.handle("BATCH" + " 0 0 1".repeat(GameServer.MAX_BATCH))
+          .startsWith("OK 3 3 0 0 4099 "), true);
+      t.checkExpect(server.sessions.live(), 1);
+      t.checkExpect(session.handle("NEW 2 2 1"), "OK 2");
+      t.checkExpect(server.sessions.get(1), null);
+      t.checkExpect(session.handle("QUIT"), "BYE");
+      session.end();
+      t.checkExpect(server.sessions.live(), 0);
+      t.checkExpect(server.moves.count(), 4L);
+
+      // many clients over the socket at once
+      LoadGenerator load = new LoadGenerator(server.port(), 6, 5, 11);
+      long replies = load.run(20, 40);
+      t.checkExpect(server.sessions.created(), 22L);
+      t.checkExpect(server.moves.count(), 4L + 20 * 40);
+      t.checkExpect(replies > 20 * 35, true);
+      t.checkExpect(server.stats().startsWith("sessions 22 live "), true);
+    } catch (Exception e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the table of each cell's neighbors
+  void testNeighborTable(Tester t) {
+    // the same neighbors as working them out each time
+    BitBoard bits = new BitBoard(5, 3);
+    int[] table = NeighborTable.build(5, 3);
+    boolean same = true;
+    for (int cell = 0; cell < 15; cell++) {
+      for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        same = same && table[NeighborTable.slot(cell, dir)] == bits.neighbor(cell, dir);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(table[NeighborTable.slot(5, BoardModel.RIGHT)], 8);
+    t.checkExpect(table[NeighborTable.slot(5, BoardModel.BOTTOM)], -1);
+
+    // the array holds the very pieces in the lists, also after a reset
+    LightEmAll2 game = new LightEmAll2(4, 6, new Random(2));
+    t.checkExpect(game.cells.length, 24);
+    t.checkExpect(game.pieceAt(game.index(3, 5)) == game.board.get(3).get(5), true);
+    t.checkExpect(game.neighbor(game.index(3, 5), BoardModel.LEFT), game.index(2, 5));
+    game.resetBoard();
+    boolean sameCells = true;
+    for (int col = 0; col < 4; col++) {
+      for (int row = 0; row < 6; row++) {
+        sameCells = sameCells && game.cells[game.index(col, row)] == game.board.get(col).get(row);
+      }
+    }
+    t.checkExpect(sameCells, true);
+    t.checkExpect(game.cells[0].powerStation, true);
+  }
+
+  // the record of a game from the given seed played by following the hints
+  String winningRecord(int width, int height, long seed) {
+    LightEmAllEngine game = new LightEmAllEngine(width, height, new Random(seed));
+    ArrayList<Integer> moves = new ArrayList<>();
+    while (game.hintCell() >= 0) {
+      int cell = game.hintCell();
+      moves.add(cell);
+      moves.add(game.hintTurns());
+      game.turn(cell, game.hintTurns());
+    }
+    int[] cols = new int[moves.size() / 2];
+    int[] rows = new int[cols.length];
+    int[] turns = new int[cols.length];
+    for (int i = 0; i < cols.length; i++) {
+      cols[i] = moves.get(2 * i) / height;
+      rows[i] = moves.get(2 * i) % height;
+      turns[i] = moves.get(2 * i + 1);
+    }
+    return ReplayVerifier.record(width, height, seed, cols, rows, turns);
+  }
+
+  // test checking submitted games by replaying them
+  void testReplayVerifier(Tester t) {
+    String won = this.winningRecord(6, 4, 9);
+    t.checkExpect(ReplayVerifier.check(won), null);
+    // the same board as the game makes
+    LightEmAll2 game = new LightEmAll2(6, 4, new Random(9));
+    String[] words = won.split(" ");
+    for (int i = 4; i < words.length; i += 3) {
+      for (int turn = 0; turn < Integer.parseInt(words[i + 2]); turn++) {
+        game.onMouseClicked(new Posn(Integer.parseInt(words[i]) * 50 + 25,
+            Integer.parseInt(words[i + 1]) * 50 + 25));
+      }
+    }
+    t.checkExpect(game.checkWinCondition(), true);
+    t.checkExpect(game.engine.steps, Integer.parseInt(words[3]));
+
+    t.checkExpect(ReplayVerifier.check("6 4 9 1000 "
+        + String.join(" ", java.util.Arrays.copyOfRange(words, 4, words.length))),
+        "claims 1000 steps but took " + words[3]);
+    t.checkExpect(ReplayVerifier.check("6 4 9 1 0 0 1"), "does not win");
+    t.checkExpect(ReplayVerifier.check("6 4 9 1 6 0 1"), "cannot turn 6, 0 1 times");
+    t.checkExpect(ReplayVerifier.check("6 4 9 1 0 0"),
+        "not width height seed steps and col row turns triples");
+    t.checkExpect(ReplayVerifier.check("6 x 9 0"), "not a number: For input string: \"x\"");
+    t.checkExpect(ReplayVerifier.check("0 4 9 0"), "no board is 0 x 4");
+    t.checkExpect(ReplayVerifier.check("2048 2048 9 0"), "no board is 2048 x 2048");
+    t.checkExpect(ReplayVerifier.check("65 64 9 0"), "no board is 65 x 64");
+
+    // more records than fit in one chunk, checked in parallel
+    StringBuilder records = new StringBuilder();
+    for (int seed = 0; seed < 700; seed++) {
+      if (seed == 3) {
+        records.append("3 3 3 0\n\n");
+      } else if (seed == 600) {
+        records.append("3 3 600 -1\n");
+      } else {
+        records.append(this.winningRecord(3, 3, seed)).append('\n');
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(2);
+    ReplayVerifier verifier = new ReplayVerifier(pool);
+    java.util.concurrent.ConcurrentHashMap<Long, String> rejected =
+        new java.util.concurrent.ConcurrentHashMap<>();
+    try {
+      verifier.verifyAll(new java.io.BufferedReader(new java.io.StringReader(records.toString())),
+          rejected::put);
+    } catch (Exception e) {
+      t.checkExpect(e, null);
+    }
+    pool.shutdown();
+    t.checkExpect(verifier.checked.sum(), 700L);
+    t.checkExpect(verifier.accepted.sum(), 698L);
+    t.checkExpect(rejected.size(), 2);
+    t.checkExpect(rejected.get(3L), "does not win");
+    t.checkExpect(rejected.get(600L), "claims -1 steps but took 0");
+
+    // a record the replay throws on is turned down, and the rest still checked
+    ForkJoinPool one = new ForkJoinPool(1);
+    ReplayVerifier tripping = new ReplayVerifier(one) {
+      String reasonFor(String record) {
+        if (record.startsWith("3 3 1 ")) {
+          throw new IllegalStateException("tripped");
+        }
+        return super.reasonFor(record);
+      }
+    };
+    rejected.clear();
+    try {
+      tripping.verifyAll(new java.io.BufferedReader(new java.io.StringReader(
+          this.winningRecord(3, 3, 0) + "\n" + this.winningRecord(3, 3, 1) + "\n"
+          + this.winningRecord(3, 3, 2) + "\n")), rejected::put);
+    } catch (Exception e) {
+      t.checkExpect(e, null);
+    }
+    one.shutdown();
+    t.checkExpect(tripping.checked.sum(), 3L);
+    t.checkExpect(tripping.accepted.sum(), 2L);
+    t.checkExpect(rejected.get(1L),
+        "cannot be replayed: java.lang.IllegalStateException: tripped");
+  }
+
+  // test rotating many tiles in one batch
+  void testRotateAll(Tester t) {
+    // a batch ends up just like the same rotations one at a time
+    LightEmAllEngine batched = new LightEmAllEngine(12, 9, new Random(4));
+    LightEmAllEngine single = new LightEmAllEngine(12, 9, new Random(4));
+    Random clicks = new Random(8);
+    int[] cols = new int[300];
+    int[] rows = new int[300];
+    int[] turns = new int[300];
+    for (int i = 0; i < 300; i++) {
+      cols[i] = clicks.nextInt(12);
+      rows[i] = clicks.nextInt(9);
+      turns[i] = clicks.nextInt(6);
+      // full circles are not steps
+      for (int turn = 0; turn < (turns[i] & 3); turn++) {
+        single.rotate(cols[i], rows[i]);
+      }
+    }
+    batched.rotateAll(cols, rows, turns);
+    t.checkExpect(((BitBoard) batched.board).connectors, ((BitBoard) single.board).connectors);
+    t.checkExpect(batched.steps, single.steps);
+    t.checkExpect(batched.board.poweredCount(), single.board.poweredCount());
+    t.checkExpect(batched.tilesRemaining(), single.tilesRemaining());
+    t.checkExpect(batched.checkWinCondition(), single.checkWinCondition());
+    batched.verifyPoweredCount();
+    t.checkExpect(batched.batchTurns[batched.board.index(cols[0], rows[0])], (byte) 0);
+
+    // a small batch on a big board is powered one tile at a time, the same way
+    LightEmAllEngine big = new LightEmAllEngine(40, 40, new Random(5));
+    LightEmAllEngine bigSingle = new LightEmAllEngine(40, 40, new Random(5));
+    for (int round = 0; round < 40; round++) {
+      int[] few = {clicks.nextInt(40), clicks.nextInt(40), clicks.nextInt(40)};
+      int[] at = {clicks.nextInt(40), 0, clicks.nextInt(40)};
+      int[] times = {1, 2, 3};
+      big.rotateAll(few, at, times);
+      for (int i = 0; i < 3; i++) {
+        for (int turn = 0; turn < times[i]; turn++) {
+          bigSingle.rotate(few[i], at[i]);
+        }
+      }
+    }
+    boolean samePower = true;
+    for (int cell = 0; cell < 1600; cell++) {
+      samePower = samePower && big.board.isPowered(cell) == bigSingle.board.isPowered(cell);
+    }
+    t.checkExpect(samePower, true);
+    t.checkExpect(big.board.poweredCount(), bigSingle.board.poweredCount());
+    big.verifyPoweredCount();
+
+    // full circles cost nothing, and a move of only full circles is no move
+    int before = batched.board.mask(0);
+    batched.rotateAll(new int[] {0, 0, 0}, new int[] {0, 0, 0}, new int[] {3, 5, 4});
+    t.checkExpect(batched.board.mask(0), before);
+    t.checkExpect(batched.steps, single.steps + 4);
+    // a huge number of turns is counted less its full circles too
+    batched.rotateAll(new int[] {0, 0}, new int[] {0, 0},
+        new int[] {Integer.MAX_VALUE, 1});
+    t.checkExpect(batched.board.mask(0), before);
+    t.checkExpect(batched.steps, single.steps + 8);
+
+    // each move of a batch is undone on its own, giving back its steps
+    batched.rotateAll(new int[] {1}, new int[] {1}, new int[] {2});
+    t.checkExpect(batched.undo(), true);
+    t.checkExpect(batched.steps, single.steps + 8);
+    t.checkExpect(batched.undo(), true);
+    t.checkExpect(batched.undo(), true);
+    t.checkExpect(batched.steps, single.steps + 4);
+    t.checkExpect(batched.undo(), true);
+    t.checkExpect(batched.undo(), true);
+    t.checkExpect(batched.board.mask(0), before);
+    t.checkExpect(batched.steps, single.steps);
+
+    // a bad move leaves the board alone
+    try {
+      batched.rotateAll(new int[] {0, 12}, new int[] {0, 0}, new int[] {1, 1});
+      t.checkExpect("turned", "off the board");
+    } catch (IllegalArgumentException e) {
+      t.checkExpect(e.getMessage(), "cannot turn 12, 0 1 times");
+    }
+    t.checkExpect(batched.board.mask(0), before);
+    t.checkExpect(batched.steps, single.steps);
+  }
    
 //  void testBigBang(Tester t) {
 //    this.initData();
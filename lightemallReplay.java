@@ -0,0 +1,185 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+// checks submitted games for the leaderboard: each record is one line,
+//   width height seed steps col row turns col row turns ...
+// the board is generated from the seed the way new LightEmAll2(width, height,
+// new Random(seed)) does, the moves are replayed headlessly, and the record
+// stands only if the board is won and the steps are the ones claimed
+// records are read a chunk at a time and checked on a fork-join pool while the
+// next chunks are read, with only a few chunks in memory at once, so any
+// number of records can be checked
+//
+// run with:
+//   java ReplayVerifier records.txt [threads]
+class ReplayVerifier {
+  // how many records are handed to the pool at a time
+  static final int CHUNK = 256;
+  // the most cells a recorded game can have: every record generates its board
+  // again, rewiring it to a single solution, which takes milliseconds up to
+  // 64 x 64 but a second at 200 x 200 and minutes at 1024 x 1024, so bigger
+  // records are turned down before anything is generated
+  static final int MAX_CELLS = 64 * 64;
+
+  ForkJoinPool pool;
+  // how many chunks may be read but not yet checked
+  int maxChunks;
+  LongAdder checked = new LongAdder();
+  LongAdder accepted = new LongAdder();
+
+  ReplayVerifier(ForkJoinPool pool) {
+    this.pool = pool;
+    this.maxChunks = 2 * pool.getParallelism() + 1;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int threads = args.length > 1 ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    ReplayVerifier verifier = new ReplayVerifier(pool);
+    long start = System.nanoTime();
+    try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]),
+        StandardCharsets.UTF_8)) {
+      verifier.verifyAll(in, (number, reason) ->
+          System.out.println("record " + number + ": " + reason));
+    }
+    pool.shutdown();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format("%d of %d records stand, %.0f records/s",
+        verifier.accepted.sum(), verifier.checked.sum(), verifier.checked.sum() / seconds));
+  }
+
+  // EFFECT: checks every record until the end of in, telling rejects the number,
+  // counting from 0, and the reason of each that does not stand, from any
+  // thread of the pool, and returns once all of them are checked
+  void verifyAll(BufferedReader in, ReplayRejects rejects)
+      throws IOException, InterruptedException {
+    Semaphore room = new Semaphore(this.maxChunks);
+    long number = 0;
+    ArrayList<String> chunk = new ArrayList<>(CHUNK);
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (line.isBlank()) {
+        continue;
+      }
+      chunk.add(line);
+      if (chunk.size() == CHUNK) {
+        this.submit(chunk, number, room, rejects);
+        number += CHUNK;
+        chunk = new ArrayList<>(CHUNK);
+      }
+    }
+    if (!chunk.isEmpty()) {
+      this.submit(chunk, number, room, rejects);
+    }
+    // every chunk gives its room back once it is checked
+    room.acquire(this.maxChunks);
+  }
+
+  // EFFECT: checks the given records, the first being the given number, on the
+  // pool, once there is room for another chunk
+  void submit(ArrayList<String> chunk, long first, Semaphore room, ReplayRejects rejects)
+      throws InterruptedException {
+    room.acquire();
+    this.pool.execute(() -> {
+      try {
+        for (int i = 0; i < chunk.size(); i++) {
+          String reason;
+          try {
+            reason = this.reasonFor(chunk.get(i));
+          } catch (RuntimeException e) {
+            // a record the replay trips over is turned down on its own, instead
+            // of taking the rest of its chunk with it unchecked
+            reason = "cannot be replayed: " + e;
+          }
+          this.checked.increment();
+          if (reason == null) {
+            this.accepted.increment();
+          } else {
+            rejects.reject(first + i, reason);
+          }
+        }
+      } finally {
+        room.release();
+      }
+    });
+  }
+
+  // why the given record does not stand, or null if it does, as the pool's
+  // tasks ask it
+  String reasonFor(String record) {
+    return ReplayVerifier.check(record);
+  }
+
+  // why the given record does not stand, or null if it does
+  static String check(String record) {
+    String[] words = record.trim().split("\\s+");
+    if (words.length < 4 || (words.length - 4) % 3 != 0) {
+      return "not width height seed steps and col row turns triples";
+    }
+    try {
+      int width = Integer.parseInt(words[0]);
+      int height = Integer.parseInt(words[1]);
+      long seed = Long.parseLong(words[2]);
+      long claimed = Long.parseLong(words[3]);
+      if (width <= 0 || height <= 0 || (long) width * height > MAX_CELLS) {
+        return "no board is " + width + " x " + height;
+      }
+      int count = (words.length - 4) / 3;
+      int[] cols = new int[count];
+      int[] rows = new int[count];
+      int[] turns = new int[count];
+      for (int i = 0; i < count; i++) {
+        cols[i] = Integer.parseInt(words[4 + 3 * i]);
+        rows[i] = Integer.parseInt(words[5 + 3 * i]);
+        turns[i] = Integer.parseInt(words[6 + 3 * i]);
+      }
+
+      LightEmAllEngine game = new LightEmAllEngine(width, height, new Random(seed));
+      // the steps are counted here in a long, so a huge claim cannot wrap around,
+      // and full circles count for nothing, as they do in the game
+      long steps = 0;
+      for (int turn : turns) {
+        steps += turn & 3;
+      }
+      game.rotateAll(cols, rows, turns);
+      if (steps != claimed) {
+        return "claims " + claimed + " steps but took " + steps;
+      }
+      if (!game.checkWinCondition()) {
+        return "does not win";
+      }
+      return null;
+    } catch (NumberFormatException e) {
+      return "not a number: " + e.getMessage();
+    } catch (IllegalArgumentException e) {
+      return e.getMessage();
+    }
+  }
+
+  // the record of the given moves on the board from the given seed, claiming
+  // as many steps as they take
+  static String record(int width, int height, long seed, int[] cols, int[] rows, int[] turns) {
+    long steps = 0;
+    StringBuilder moves = new StringBuilder();
+    for (int i = 0; i < cols.length; i++) {
+      steps += turns[i] & 3;
+      moves.append(' ').append(cols[i]).append(' ').append(rows[i]).append(' ').append(turns[i]);
+    }
+    return width + " " + height + " " + seed + " " + steps + moves;
+  }
+}
+
+// where a ReplayVerifier sends the records that do not stand, called from many
+// threads at once
+interface ReplayRejects {
+  void reject(long number, String reason);
+}
@@ -0,0 +1,444 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// a server for many games at once on the loopback address, each connection
+// playing its own headless game, one line in and one line out at a time:
+//   NEW width height seed   starts a new scrambled game   -> OK id
+//   ROTATE col row          rotates a tile                -> OK state
+//   MOVE LEFT|RIGHT|UP|DOWN moves the power station       -> OK state
+//   BATCH col row turns ... rotates up to 4096 tiles      -> OK state
+//   UNDO, REDO              take back and redo a rotation -> OK state
+//   STATE                                                 -> OK state
+//   BOARD                   the connectors, a hex digit a cell by cell index
+//   STATS                   how the server is doing
+//   QUIT                                                  -> BYE
+// where state is: width height stationCol stationRow steps powered won
+// anything wrong gets ERR and a reason, and the connection carries on
+//
+// run with:
+//   java GameServer [port]
+class GameServer implements AutoCloseable {
+  // the most cells a game on the server can have: a new game is rewired to a
+  // single solution on the connection's thread, which takes about a second at
+  // 200 x 200 and minutes at 1024 x 1024
+  static final int MAX_CELLS = 200 * 200;
+  // the most col row turns triples one BATCH line can have, so that a single
+  // line cannot hold up its connection's thread for long
+  static final int MAX_BATCH = 4096;
+
+  ServerSocket listener;
+  ExecutorService connections;
+  SessionStore sessions = new SessionStore();
+  // how long each ROTATE and MOVE takes to handle, in nanoseconds
+  LatencyHistogram moves = new LatencyHistogram("server move");
+  // the connections that are open, to close when the server is
+  Set<Socket> open = ConcurrentHashMap.newKeySet();
+  long started = System.nanoTime();
+
+  // starts listening on the given port of the loopback address, 0 for any free port
+  GameServer(int port) throws IOException {
+    this.listener = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    this.connections = GameServer.connectionExecutor();
+    Thread acceptor = new Thread(this::acceptAll, "game server " + this.port());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    GameServer server = new GameServer(args.length > 0 ? Integer.parseInt(args[0]) : 7878);
+    System.out.println("listening on " + server.listener.getLocalSocketAddress());
+    while (true) {
+      Thread.sleep(10000);
+      System.out.println(server.stats());
+    }
+  }
+
+  // a thread per connection: virtual threads where the JVM has them, so that
+  // thousands of idle connections cost next to nothing, and a cached pool of
+  // daemon threads otherwise
+  static ExecutorService connectionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "game connection");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  int port() {
+    return this.listener.getLocalPort();
+  }
+
+  // EFFECT: hands every new connection to its own thread until the server is closed
+  void acceptAll() {
+    try {
+      while (true) {
+        Socket socket = this.listener.accept();
+        this.open.add(socket);
+        this.connections.execute(() -> this.serve(socket));
+      }
+    } catch (IOException e) {
+      // the listener was closed
+    }
+  }
+
+  // EFFECT: answers the lines from the given connection until it closes or quits
+  void serve(Socket socket) {
+    GameSession session = new GameSession(this);
+    try (socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), false,
+            StandardCharsets.UTF_8)) {
+      socket.setTcpNoDelay(true);
+      String line;
+      while ((line = in.readLine()) != null) {
+        String reply = session.handle(line);
+        out.print(reply);
+        out.print('\n');
+        out.flush();
+        if (reply.equals("BYE")) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      // the client went away
+    } finally {
+      session.end();
+      this.open.remove(socket);
+    }
+  }
+
+  // sessions started in all, how many are playing, sessions started a second
+  // since the server started, and the 50th and 99th percentile move times
+  String stats() {
+    double seconds = (System.nanoTime() - this.started) / 1e9;
+    return String.format("sessions %d live %d rate %.1f/s moves %d p50 %dus p99 %dus",
+        this.sessions.created(), this.sessions.live(), this.sessions.created() / seconds,
+        this.moves.count(), this.moves.valueAtPercentile(50) / 1000,
+        this.moves.valueAtPercentile(99) / 1000);
+  }
+
+  // EFFECT: stops listening and closes every connection
+  public void close() throws IOException {
+    this.listener.close();
+    for (Socket socket : this.open) {
+      socket.close();
+    }
+    this.connections.shutdown();
+  }
+}
+
+// every game being played on a server, by id
+// the map spreads its locking over its bins and reads take no locks, so
+// sessions starting and ending on different connections do not wait on each
+// other, and each game is only ever touched by its own connection
+class SessionStore {
+  ConcurrentHashMap<Long, LightEmAllEngine> games = new ConcurrentHashMap<>();
+  AtomicLong nextId = new AtomicLong(1);
+  LongAdder started = new LongAdder();
+
+  // EFFECT: keeps the given game under a new id
+  long add(LightEmAllEngine game) {
+    long id = this.nextId.getAndIncrement();
+    this.games.put(id, game);
+    this.started.increment();
+    return id;
+  }
+
+  // EFFECT: forgets the game with the given id
+  void remove(long id) {
+    this.games.remove(id);
+  }
+
+  LightEmAllEngine get(long id) {
+    return this.games.get(id);
+  }
+
+  long created() {
+    return this.started.sum();
+  }
+
+  int live() {
+    return this.games.size();
+  }
+}
+
+// the game one connection is playing, and the protocol that plays it
+class GameSession {
+  GameServer server;
+  // 0 until a game is started
+  long id;
+  LightEmAllEngine game;
+
+  GameSession(GameServer server) {
+    this.server = server;
+  }
+
+  // the reply to one line from the client
+  String handle(String line) {
+    String[] words = line.trim().split("\\s+");
+    try {
+      switch (words[0].toUpperCase()) {
+        case "NEW":
+          return this.start(GameSession.smallNumber(words, 1),
+              GameSession.smallNumber(words, 2), GameSession.number(words, 3));
+        case "ROTATE": {
+          long start = System.nanoTime();
+          boolean turned = this.game().rotate(GameSession.smallNumber(words, 1),
+              GameSession.smallNumber(words, 2));
+          this.server.moves.record(System.nanoTime() - start);
+          return turned ? this.state() : "ERR off the board";
+        }
+        case "MOVE": {
+          long start = System.nanoTime();
+          boolean moved = this.move(words.length > 1 ? words[1].toUpperCase() : "");
+          this.server.moves.record(System.nanoTime() - start);
+          return moved ? this.state() : "ERR no wire that way";
+        }
+        case "BATCH": {
+          long start = System.nanoTime();
+          this.batch(words);
+          this.server.moves.record(System.nanoTime() - start);
+          return this.state();
+        }
+        case "UNDO":
+          return this.game().undo() ? this.state() : "ERR nothing to undo";
+        case "REDO":
+          return this.game().redo() ? this.state() : "ERR nothing to redo";
+        case "STATE":
+          return this.state();
+        case "BOARD":
+          return "OK " + this.board();
+        case "STATS":
+          return "OK " + this.server.stats();
+        case "QUIT":
+          return "BYE";
+        default:
+          return "ERR unknown command " + words[0];
+      }
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      return "ERR " + e.getMessage();
+    }
+  }
+
+  // EFFECT: replaces this connection's game with a new one
+  String start(int width, int height, long seed) {
+    if (width <= 0 || height <= 0 || (long) width * height > GameServer.MAX_CELLS) {
+      throw new IllegalArgumentException("a game is 1 to " + GameServer.MAX_CELLS
+          + " cells, not " + width + " x " + height);
+    }
+    this.end();
+    this.game = new LightEmAllEngine(width, height, new Random(seed));
+    this.id = this.server.sessions.add(this.game);
+    return "OK " + this.id;
+  }
+
+  // EFFECT: moves the power station in the given direction
+  boolean move(String direction) {
+    switch (direction) {
+      case "LEFT":
+        return this.game().movePowerStation(-1, 0);
+      case "RIGHT":
+        return this.game().movePowerStation(1, 0);
+      case "UP":
+        return this.game().movePowerStation(0, -1);
+      case "DOWN":
+        return this.game().movePowerStation(0, 1);
+      default:
+        throw new IllegalArgumentException("no direction " + direction);
+    }
+  }
+
+  // EFFECT: applies the col row turns triples after BATCH in one go
+  void batch(String[] words) {
+    if (words.length % 3 != 1) {
+      throw new IllegalArgumentException("BATCH needs col row turns triples");
+    }
+    int count = words.length / 3;
+    if (count > GameServer.MAX_BATCH) {
+      throw new IllegalArgumentException("a BATCH is at most " + GameServer.MAX_BATCH
+          + " triples, not " + count);
+    }
+    int[] cols = new int[count];
+    int[] rows = new int[count];
+    int[] turns = new int[count];
+    for (int i = 0; i < count; i++) {
+      cols[i] = GameSession.smallNumber(words, 3 * i + 1);
+      rows[i] = GameSession.smallNumber(words, 3 * i + 2);
+      turns[i] = GameSession.smallNumber(words, 3 * i + 3);
+    }
+    this.game().rotateAll(cols, rows, turns);
+  }
+
+  // EFFECT: forgets this connection's game, if it has one
+  void end() {
+    if (this.game != null) {
+      this.server.sessions.remove(this.id);
+      this.game = null;
+      this.id = 0;
+    }
+  }
+
+  LightEmAllEngine game() {
+    if (this.game == null) {
+      throw new IllegalStateException("no game, start one with NEW width height seed");
+    }
+    return this.game;
+  }
+
+  String state() {
+    LightEmAllEngine game = this.game();
+    return "OK " + game.board.width() + " " + game.board.height() + " " + game.powerCol + " "
+        + game.powerRow + " " + game.steps + " " + game.board.poweredCount() + " "
+        + game.checkWinCondition();
+  }
+
+  // the connectors of every cell, a hex digit each
+  String board() {
+    BoardModel board = this.game().board;
+    StringBuilder digits = new StringBuilder(board.width() * board.height());
+    for (int cell = 0; cell < board.width() * board.height(); cell++) {
+      digits.append(Character.forDigit(board.mask(cell), 16));
+    }
+    return digits.toString();
+  }
+
+  // the number at the given place in the line
+  static long number(String[] words, int at) {
+    if (at >= words.length) {
+      throw new IllegalArgumentException(words[0] + " needs " + at + " numbers");
+    }
+    try {
+      return Long.parseLong(words[at]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("not a number: " + words[at]);
+    }
+  }
+
+  // the number at the given place in the line, which must fit in an int
+  static int smallNumber(String[] words, int at) {
+    long number = GameSession.number(words, at);
+    if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("out of range: " + words[at]);
+    }
+    return (int) number;
+  }
+}
+
+// drives a game server with many clients at once, each starting a game and
+// then sending random rotations and station moves, to see how the server holds
+// up
+//
+// run with a server listening:
+//   java LoadGenerator port [clients] [moves]
+class LoadGenerator {
+  int port;
+  int width;
+  int height;
+  long seed;
+
+  LoadGenerator(int port, int width, int height, long seed) {
+    this.port = port;
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int moves = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    LoadGenerator load = new LoadGenerator(Integer.parseInt(args[0]), 10, 10, 1);
+    long start = System.nanoTime();
+    long replies = load.run(clients, moves);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format("%d replies from %d clients in %.2fs, %.1f sessions/s",
+        replies, clients, seconds, clients / seconds));
+  }
+
+  // runs the given number of clients at once, each making the given number of
+  // moves, and waits for them all
+  // returns how many OK replies came back, throwing if any client failed
+  long run(int clients, int moves) throws Exception {
+    ExecutorService threads = GameServer.connectionExecutor();
+    try {
+      Future<?>[] running = new Future<?>[clients];
+      LongAdder replies = new LongAdder();
+      for (int i = 0; i < clients; i++) {
+        long clientSeed = this.seed + i;
+        running[i] = threads.submit(() -> {
+          replies.add(this.client(clientSeed, moves));
+          return null;
+        });
+      }
+      for (Future<?> client : running) {
+        client.get();
+      }
+      return replies.sum();
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  // plays one game with the given seed on its own connection
+  // returns how many OK replies came back
+  long client(long clientSeed, int moves) throws IOException {
+    Random rand = new Random(clientSeed);
+    String[] directions = {"LEFT", "RIGHT", "UP", "DOWN"};
+    long ok = 0;
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), false,
+            StandardCharsets.UTF_8)) {
+      socket.setTcpNoDelay(true);
+      ok += LoadGenerator.ask(in, out, "NEW " + this.width + " " + this.height + " " + clientSeed)
+          .startsWith("OK") ? 1 : 0;
+      for (int i = 0; i < moves; i++) {
+        String request = rand.nextInt(8) == 0
+            ? "MOVE " + directions[rand.nextInt(4)]
+            : "ROTATE " + rand.nextInt(this.width) + " " + rand.nextInt(this.height);
+        String reply = LoadGenerator.ask(in, out, request);
+        // the station can only move along a wire, so some moves are refused
+        if (reply.startsWith("OK")) {
+          ok++;
+        } else if (!reply.equals("ERR no wire that way")) {
+          throw new IOException(request + " got " + reply);
+        }
+      }
+      LoadGenerator.ask(in, out, "QUIT");
+    }
+    return ok;
+  }
+
+  // sends one line and reads the reply
+  static String ask(BufferedReader in, PrintWriter out, String request) throws IOException {
+    out.print(request);
+    out.print('\n');
+    out.flush();
+    String reply = in.readLine();
+    if (reply == null) {
+      throw new SocketException("the server closed the connection");
+    }
+    return reply;
+  }
+}
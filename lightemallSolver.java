@@ -0,0 +1,771 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// solves a scrambled board: finds how many quarter turns each cell needs so that
+// every wire meets a wire and all of the cells are connected, which is what any
+// winning layout of a board made from a spanning tree looks like
+// the turns a cell can take are narrowed by its neighbors and the border, and
+// wires that would close a loop or seal off part of the board are ruled out
+// the cells that are still undecided after that are searched with backtracking,
+// split up across the cores of a fork-join pool
+class PuzzleSolver {
+  // the connectors of each mask turned r times, at mask * 4 + r
+  static final int[] TURNED = new int[64];
+  // the connectors that every turn in a set of turns has, at mask * 16 + turns
+  static final byte[] MUST = new byte[256];
+  // the connectors that some turn in a set of turns has, at mask * 16 + turns
+  static final byte[] MAY = new byte[256];
+
+  static {
+    for (int mask = 0; mask < 16; mask++) {
+      int turned = mask;
+      for (int r = 0; r < 4; r++) {
+        TURNED[mask * 4 + r] = turned;
+        turned = BoardModel.rotateMask(turned);
+      }
+      for (int turns = 0; turns < 16; turns++) {
+        int must = 0xF;
+        int may = 0;
+        for (int r = 0; r < 4; r++) {
+          if ((turns & (1 << r)) != 0) {
+            must &= TURNED[mask * 4 + r];
+            may |= TURNED[mask * 4 + r];
+          }
+        }
+        MUST[mask * 16 + turns] = (byte) (turns == 0 ? 0 : must);
+        MAY[mask * 16 + turns] = (byte) may;
+      }
+    }
+  }
+
+  // the quarter turns each cell of the given board needs to win, by cell index,
+  // or null if there is no way to win it
+  static byte[] solve(BoardModel board) {
+    return PuzzleSolver.solve(board, ForkJoinPool.commonPool());
+  }
+
+  // the same, searching on the given pool
+  static byte[] solve(BoardModel board, ForkJoinPool pool) {
+    SolverSearch search = new SolverSearch(1);
+    search.run(board, pool);
+    return search.first.get();
+  }
+
+  // how many different ways there are to win the given board, counting no
+  // further than limit, which must be 1 or 2
+  static int countSolutions(BoardModel board, int limit) {
+    return PuzzleSolver.countSolutions(board, limit, ForkJoinPool.commonPool());
+  }
+
+  // the same, searching on the given pool
+  static int countSolutions(BoardModel board, int limit, ForkJoinPool pool) {
+    SolverSearch search = new SolverSearch(limit);
+    search.run(board, pool);
+    return search.found.get();
+  }
+
+  // whether the given board can be won in exactly one way, so that the fewest
+  // steps it takes to win are the same for everyone
+  static boolean isUnique(BoardModel board) {
+    return PuzzleSolver.countSolutions(board, 2) == 1;
+  }
+
+  // EFFECT: rewires the given board, which must be laid out as a spanning tree,
+  // until that layout is the only way to win it, moving one wire in every patch
+  // of cells the solver cannot settle before searching, as many as rounds times
+  // returns whether the board ended up with a single solution
+  static boolean makeUnique(BoardModel board, Random rand, int rounds) {
+    int size = board.width() * board.height();
+    boolean[] side = new boolean[size];
+    int[] queue = new int[size];
+    for (int round = 0; round < rounds; round++) {
+      SolverSearch search = new SolverSearch(2);
+      search.run(board, ForkJoinPool.commonPool());
+      if (search.found.get() == 1) {
+        return true;
+      }
+      SolverState root = search.root;
+      int lastPatch = -1;
+      for (int at = 0; at < root.order.length; at++) {
+        if (root.patch[at] != lastPatch) {
+          lastPatch = root.patch[at];
+          PuzzleSolver.moveWire(board, root.order[at], rand, side, queue);
+        }
+      }
+    }
+    return false;
+  }
+
+  // EFFECT: takes a random wire of the given cell off the given spanning tree and
+  // puts in a wire close by that joins the two halves back up, using side and
+  // queue as scratch space the size of the board
+  static void moveWire(BoardModel board, int cell, Random rand, boolean[] side,
+      int[] queue) {
+    int mask = board.mask(cell);
+    if (mask == 0) {
+      return;
+    }
+    // the n-th connector of the cell, for a random n
+    int dir = mask;
+    for (int skip = rand.nextInt(Integer.bitCount(mask)); skip > 0; skip--) {
+      dir &= dir - 1;
+    }
+    dir &= -dir;
+    int other = board.neighbor(cell, dir);
+    board.setMask(cell, mask & ~dir);
+    board.setMask(other, board.mask(other) & ~BoardModel.opposite(dir));
+
+    // mark the half the cell is in, then pick a wire from the cell, the cell
+    // it was wired to, or their neighbors into the other half
+    java.util.Arrays.fill(side, false);
+    side[cell] = true;
+    queue[0] = cell;
+    for (int head = 0, tail = 1; head < tail; head++) {
+      for (int d = BoardModel.LEFT; d <= BoardModel.BOTTOM; d <<= 1) {
+        int next = board.neighbor(queue[head], d);
+        if (board.linked(queue[head], d) && !side[next]) {
+          side[next] = true;
+          queue[tail++] = next;
+        }
+      }
+    }
+    int candidates = 0;
+    int chosen = -1;
+    int chosenDir = 0;
+    for (int near = 0; near < 10; near++) {
+      int from = near < 5 ? cell : other;
+      if (near % 5 != 0) {
+        from = board.neighbor(from, 1 << (near % 5 - 1));
+      }
+      for (int d = BoardModel.LEFT; from >= 0 && d <= BoardModel.BOTTOM; d <<= 1) {
+        int to = board.neighbor(from, d);
+        if (to >= 0 && side[from] && !side[to] && !(from == cell && to == other)
+            && rand.nextInt(++candidates) == 0) {
+          chosen = from;
+          chosenDir = d;
+        }
+      }
+    }
+    if (chosen < 0) {
+      // nothing else close by joins the halves, so the wire goes back
+      chosen = cell;
+      chosenDir = dir;
+    }
+    int to = board.neighbor(chosen, chosenDir);
+    board.setMask(chosen, board.mask(chosen) | chosenDir);
+    board.setMask(to, board.mask(to) | BoardModel.opposite(chosenDir));
+  }
+
+  // EFFECT: turns every cell of the engine's board by the given number of quarter
+  // turns, counting each turn as a step
+  static void apply(LightEmAllEngine engine, byte[] turns) {
+    for (int cell = 0; cell < turns.length; cell++) {
+      for (int i = 0; i < turns[cell]; i++) {
+        engine.rotate(cell / engine.board.height(), cell % engine.board.height());
+      }
+    }
+  }
+}
+
+// one search through the turns of a board, shared by every task working on it
+// it stops as soon as limit solutions have been found
+class SolverSearch {
+  int limit;
+  // how many solutions have been found so far, and the first one
+  AtomicInteger found = new AtomicInteger();
+  AtomicReference<byte[]> first = new AtomicReference<>();
+  // set once no task needs to keep looking
+  volatile boolean stop;
+  // the state after propagating and probing, before any search
+  SolverState root;
+
+  SolverSearch(int limit) {
+    this.limit = limit;
+  }
+
+  // EFFECT: searches the given board on the given pool until it is exhausted or
+  // limit solutions are found
+  // when called from a task already running on some pool, it searches on that
+  // pool instead, so a batch of boards does not wait on another pool
+  void run(BoardModel board, ForkJoinPool pool) {
+    SolverState root = new SolverState(board);
+    if (!root.broken && root.propagate() && root.probe()) {
+      root.orderUndecided();
+      this.root = new SolverState(root);
+      SolverTask task = new SolverTask(this, root, 0);
+      if (ForkJoinTask.inForkJoinPool()) {
+        task.invoke();
+      } else {
+        pool.invoke(task);
+      }
+    }
+  }
+
+  // EFFECT: records the solution the given state has reached
+  // a search that starts over can reach the same solution again, so only ones
+  // that differ from the first are counted after it, which keeps the count
+  // exact for limits of up to two
+  // returns whether to keep searching for more
+  boolean report(SolverState state) {
+    byte[] turns = state.turns();
+    if (this.first.compareAndSet(null, turns) || !java.util.Arrays.equals(turns, this.first.get())) {
+      if (this.found.incrementAndGet() >= this.limit) {
+        this.stop = true;
+      }
+    }
+    return !this.stop;
+  }
+}
+
+// searches from one state of a board, forking off more tasks while the pool has room
+class SolverTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  SolverSearch search;
+  SolverState state;
+  // every cell in the search order before this place is decided in state
+  int cursor;
+
+  SolverTask(SolverSearch search, SolverState state, int cursor) {
+    this.search = search;
+    this.state = state;
+    this.cursor = cursor;
+  }
+
+  protected void compute() {
+    ArrayList<SolverTask> forked = new ArrayList<>();
+    this.state.search(this.search, this.cursor, forked);
+    for (SolverTask task : forked) {
+      task.join();
+    }
+  }
+}
+
+// the turns each cell can still take, with the wires known so far joined in a
+// union-find that can be undone, so a search can back up without copying
+class SolverState {
+  static final int DOMAIN = 0;
+  static final int UNION = 1;
+  // only the branching cells this close to the top of a task are handed out,
+  // deeper ones are usually too little work to be worth copying the state for
+  static final int FORK_DEPTH = 8;
+  // how often cells may run out of turns before a search first starts over
+  static final int RESTART_FAILURES = 256;
+
+  int width;
+  int height;
+  int size;
+  // the connectors of each cell as the board was given, before any turns
+  byte[] shape;
+  // bit r of domain[cell] is set if the cell may still be turned r times
+  // turns that give the same connectors are only kept once
+  byte[] domain;
+
+  // cells joined by wires that both ends must have, a cell is a root if it is
+  // its own parent, and roots keep the rank, cell count and pending count of
+  // their component, pending being the connectors that may still be wires
+  int[] parent;
+  byte[] rank;
+  int[] count;
+  int[] pending;
+
+  // the undo log, four ints an entry: kind, then what to put back
+  int[] trail;
+  int trailSize;
+
+  // cells waiting to be checked against their neighbors, as a ring
+  int[] queue;
+  boolean[] queued;
+  int queueHead;
+  int queueSize;
+
+  // the cells the search decides, in the order it decides them, and which patch
+  // of touching undecided cells each is from, both shared by copies
+  int[] order = new int[0];
+  int[] patch = new int[0];
+  // how often the branching cell at each place in order ran out of turns
+  int[] failures;
+
+  // set when the board as given already has a loop of wires
+  boolean broken;
+
+  // where in order the branching cells of the search are, where each one's
+  // undo log starts, and which of its turns are left to try
+  int[] frameAt;
+  int[] frameMark;
+  byte[] frameLeft;
+
+  SolverState(BoardModel board) {
+    this.width = board.width();
+    this.height = board.height();
+    this.size = this.width * this.height;
+    this.shape = new byte[this.size];
+    this.domain = new byte[this.size];
+    this.parent = new int[this.size];
+    this.rank = new byte[this.size];
+    this.count = new int[this.size];
+    this.pending = new int[this.size];
+    this.init();
+    for (int cell = 0; cell < this.size; cell++) {
+      int mask = board.mask(cell);
+      int turns = 0;
+      for (int r = 0; r < 4; r++) {
+        boolean repeat = false;
+        for (int earlier = 0; earlier < r; earlier++) {
+          repeat = repeat
+              || PuzzleSolver.TURNED[mask * 4 + r] == PuzzleSolver.TURNED[mask * 4 + earlier];
+        }
+        if (!repeat) {
+          turns |= 1 << r;
+        }
+      }
+      this.shape[cell] = (byte) mask;
+      this.domain[cell] = (byte) turns;
+      this.parent[cell] = cell;
+      this.count[cell] = 1;
+      this.pending[cell] = Integer.bitCount(this.may(cell));
+      this.enqueue(cell);
+    }
+
+    // wires that both ends have from the start are joined up front
+    for (int cell = 0; cell < this.size; cell++) {
+      for (int dir = BoardModel.RIGHT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+        int other = this.neighbor(cell, dir);
+        if (other >= 0 && (this.must(cell) & dir) != 0
+            && (this.must(other) & BoardModel.opposite(dir)) != 0 && !this.union(cell, other)) {
+          this.broken = true;
+        }
+      }
+    }
+  }
+
+  // a copy of the given state to search from on its own, which must not be
+  // in the middle of propagating
+  SolverState(SolverState other) {
+    this.width = other.width;
+    this.height = other.height;
+    this.size = other.size;
+    this.shape = other.shape;
+    this.domain = other.domain.clone();
+    this.parent = other.parent.clone();
+    this.rank = other.rank.clone();
+    this.count = other.count.clone();
+    this.pending = other.pending.clone();
+    this.order = other.order;
+    this.patch = other.patch;
+    this.init();
+  }
+
+  // EFFECT: sets up an empty undo log, queue and search stack
+  void init() {
+    this.trail = new int[256];
+    this.queue = new int[this.size];
+    this.queued = new boolean[this.size];
+    this.frameAt = new int[16];
+    this.frameMark = new int[16];
+    this.frameLeft = new byte[16];
+  }
+
+  // the connectors the given cell has whichever of its turns it takes
+  int must(int cell) {
+    return PuzzleSolver.MUST[this.shape[cell] * 16 + this.domain[cell]];
+  }
+
+  // the connectors the given cell has for at least one of its turns
+  int may(int cell) {
+    return PuzzleSolver.MAY[this.shape[cell] * 16 + this.domain[cell]];
+  }
+
+  // the neighbor of the given cell across the given connector bit, or -1 off the board
+  int neighbor(int cell, int dir) {
+    if (dir == BoardModel.LEFT) {
+      return cell >= this.height ? cell - this.height : -1;
+    } else if (dir == BoardModel.RIGHT) {
+      return cell + this.height < this.size ? cell + this.height : -1;
+    } else if (dir == BoardModel.TOP) {
+      return cell % this.height != 0 ? cell - 1 : -1;
+    } else {
+      return (cell + 1) % this.height != 0 ? cell + 1 : -1;
+    }
+  }
+
+  // the quarter turns each cell takes, once every cell is decided
+  byte[] turns() {
+    byte[] turns = new byte[this.size];
+    for (int cell = 0; cell < this.size; cell++) {
+      turns[cell] = (byte) Integer.numberOfTrailingZeros(this.domain[cell]);
+    }
+    return turns;
+  }
+
+  // the first place in order, from the given one on, whose cell has more than one
+  // turn left, or -1
+  int nextUndecided(int from) {
+    for (int at = from; at < this.order.length; at++) {
+      int cell = this.order[at];
+      if ((this.domain[cell] & (this.domain[cell] - 1)) != 0) {
+        return at;
+      }
+    }
+    return -1;
+  }
+
+  // EFFECT: tries every turn of every undecided cell on its own, dropping the ones
+  // that lead straight to a contradiction, until no more can be dropped
+  // this settles most of what propagating alone leaves undecided, and breaks the
+  // rest into small patches
+  // returns false if the board turns out to have no solution
+  boolean probe() {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int cell = 0; cell < this.size; cell++) {
+        for (int turn = 1; turn < 16; turn <<= 1) {
+          int turns = this.domain[cell];
+          if ((turns & turn) != 0 && turns != turn) {
+            int mark = this.trailSize;
+            boolean fits = this.narrow(cell, turn) && this.propagate();
+            if (!fits) {
+              this.emptyQueue();
+            }
+            this.undo(mark);
+            if (!fits) {
+              if (!this.narrow(cell, turns & ~turn) || !this.propagate()) {
+                return false;
+              }
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  // EFFECT: lists the undecided cells in the order the search decides them: one
+  // patch of touching undecided cells after another, breadth first within a patch,
+  // so that a contradiction in one patch rarely backs the search up into another
+  void orderUndecided() {
+    int[] found = new int[this.size];
+    int[] patch = new int[this.size];
+    boolean[] seen = new boolean[this.size];
+    int count = 0;
+    int patches = 0;
+    for (int start = 0; start < this.size; start++) {
+      if (!seen[start] && (this.domain[start] & (this.domain[start] - 1)) != 0) {
+        int head = count;
+        patches++;
+        seen[start] = true;
+        patch[count] = patches;
+        found[count++] = start;
+        while (head < count) {
+          int cell = found[head++];
+          for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+            int other = this.neighbor(cell, dir);
+            if (other >= 0 && !seen[other] && (this.domain[other] & (this.domain[other] - 1)) != 0) {
+              seen[other] = true;
+              patch[count] = patches;
+              found[count++] = other;
+            }
+          }
+        }
+      }
+    }
+    this.order = java.util.Arrays.copyOf(found, count);
+    this.patch = java.util.Arrays.copyOf(patch, count);
+  }
+
+  // EFFECT: queues the given cell to be checked against its neighbors
+  void enqueue(int cell) {
+    if (!this.queued[cell]) {
+      this.queued[cell] = true;
+      int tail = this.queueHead + this.queueSize;
+      this.queue[tail >= this.size ? tail - this.size : tail] = cell;
+      this.queueSize++;
+    }
+  }
+
+  // EFFECT: narrows every queued cell, and the neighbors of any that change, until
+  // nothing changes
+  // returns false, with the queue emptied, if some cell has no turns left or a
+  // wire would close a loop or seal off part of the board
+  boolean propagate() {
+    while (this.queueSize > 0) {
+      int cell = this.queue[this.queueHead];
+      this.queueHead = this.queueHead + 1 == this.size ? 0 : this.queueHead + 1;
+      this.queueSize--;
+      this.queued[cell] = false;
+      if (!this.check(cell)) {
+        this.emptyQueue();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // EFFECT: drops the turns of the given cell that disagree with its neighbors
+  // or point off the board
+  // returns false if that leaves a contradiction
+  boolean check(int cell) {
+    int required = 0;
+    int forbidden = 0;
+    for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+      int other = this.neighbor(cell, dir);
+      int back = BoardModel.opposite(dir);
+      if (other < 0 || (this.may(other) & back) == 0) {
+        forbidden |= dir;
+      } else if ((this.must(other) & back) != 0) {
+        required |= dir;
+      }
+    }
+
+    int keep = 0;
+    for (int r = 0; r < 4; r++) {
+      int turned = PuzzleSolver.TURNED[this.shape[cell] * 4 + r];
+      if ((this.domain[cell] & (1 << r)) != 0 && (turned & required) == required
+          && (turned & forbidden) == 0) {
+        keep |= 1 << r;
+      }
+    }
+    return this.narrow(cell, keep);
+  }
+
+  // EFFECT: leaves the given cell only the given turns, joining any wire that both
+  // ends now must have and queueing its neighbors to be checked again
+  // returns false if there are no turns left, a wire closes a loop, or a group of
+  // cells is left with no way out while not being the whole board
+  boolean narrow(int cell, int turns) {
+    int old = this.domain[cell];
+    if (turns == old) {
+      return true;
+    }
+    if (turns == 0) {
+      return false;
+    }
+    int oldMust = this.must(cell);
+    int oldMay = this.may(cell);
+    this.log(DOMAIN, cell, old, 0);
+    this.domain[cell] = (byte) turns;
+    this.pending[this.find(cell)] += Integer.bitCount(this.may(cell)) - Integer.bitCount(oldMay);
+
+    int gained = this.must(cell) & ~oldMust;
+    for (int dir = BoardModel.LEFT; dir <= BoardModel.BOTTOM; dir <<= 1) {
+      int other = this.neighbor(cell, dir);
+      if ((gained & dir) != 0) {
+        if (other < 0) {
+          return false;
+        }
+        if ((this.must(other) & BoardModel.opposite(dir)) != 0 && !this.union(cell, other)) {
+          return false;
+        }
+      }
+      if (other >= 0) {
+        this.enqueue(other);
+      }
+    }
+
+    int root = this.find(cell);
+    return this.pending[root] > 0 || this.count[root] == this.size;
+  }
+
+  // the root of the component of the given cell
+  int find(int cell) {
+    while (this.parent[cell] != cell) {
+      cell = this.parent[cell];
+    }
+    return cell;
+  }
+
+  // EFFECT: joins the components of two cells a wire now connects
+  // returns false if they were already joined, so the wire closes a loop
+  boolean union(int a, int b) {
+    int rootA = this.find(a);
+    int rootB = this.find(b);
+    if (rootA == rootB) {
+      return false;
+    }
+    if (this.rank[rootA] < this.rank[rootB]) {
+      int swap = rootA;
+      rootA = rootB;
+      rootB = swap;
+    }
+    boolean taller = this.rank[rootA] == this.rank[rootB];
+    this.log(UNION, rootB, this.pending[rootA], taller ? 1 : 0);
+    this.parent[rootB] = rootA;
+    this.count[rootA] += this.count[rootB];
+    // both ends of the new wire stop being pending
+    this.pending[rootA] += this.pending[rootB] - 2;
+    if (taller) {
+      this.rank[rootA]++;
+    }
+    return true;
+  }
+
+  // EFFECT: adds an entry to the undo log
+  void log(int kind, int a, int b, int c) {
+    if (this.trailSize + 4 > this.trail.length) {
+      this.trail = java.util.Arrays.copyOf(this.trail, this.trail.length * 2);
+    }
+    this.trail[this.trailSize++] = kind;
+    this.trail[this.trailSize++] = a;
+    this.trail[this.trailSize++] = b;
+    this.trail[this.trailSize++] = c;
+  }
+
+  // EFFECT: undoes every change logged after the given mark, latest first
+  void undo(int mark) {
+    while (this.trailSize > mark) {
+      int c = this.trail[--this.trailSize];
+      int b = this.trail[--this.trailSize];
+      int a = this.trail[--this.trailSize];
+      int kind = this.trail[--this.trailSize];
+      if (kind == DOMAIN) {
+        int may = this.may(a);
+        this.domain[a] = (byte) b;
+        this.pending[this.find(a)] += Integer.bitCount(this.may(a)) - Integer.bitCount(may);
+      } else {
+        int root = this.parent[a];
+        this.parent[a] = a;
+        this.count[root] -= this.count[a];
+        this.pending[root] = b;
+        this.rank[root] -= c;
+      }
+    }
+  }
+
+  // EFFECT: tries the turns of the undecided cells from the given place on, depth
+  // first, reporting every solution to the search until it says to stop
+  // a search that keeps backing up without getting anywhere is started over with
+  // the patch that failed most moved to the front, and more room to back up in
+  // while the pool is short of work, the other turns of a branching cell are
+  // handed to new tasks, which are added to forked
+  void search(SolverSearch search, int cursor, ArrayList<SolverTask> forked) {
+    int mark = this.trailSize;
+    int budget = SolverState.RESTART_FAILURES;
+    boolean fork = true;
+    while (!this.search(search, cursor, forked, budget, fork)) {
+      this.undo(mark);
+      this.promote(cursor);
+      budget *= 2;
+      // the tasks forked the first time around still cover their turns
+      fork = false;
+    }
+  }
+
+  // EFFECT: the same, giving up once cells have run out of turns budget times
+  // returns false if it gave up
+  boolean search(SolverSearch search, int cursor, ArrayList<SolverTask> forked, int budget,
+      boolean fork) {
+    this.failures = new int[this.order.length];
+    int depth = 0;
+    boolean descend = true;
+    while (!search.stop) {
+      if (descend) {
+        int at = this.nextUndecided(cursor);
+        if (at < 0) {
+          // every cell is decided and agrees with its neighbors, it is a
+          // solution if the wires reach every cell
+          if (this.count[this.find(0)] == this.size && !search.report(this)) {
+            return true;
+          }
+        } else {
+          if (depth == this.frameAt.length) {
+            this.frameAt = java.util.Arrays.copyOf(this.frameAt, depth * 2);
+            this.frameMark = java.util.Arrays.copyOf(this.frameMark, depth * 2);
+            this.frameLeft = java.util.Arrays.copyOf(this.frameLeft, depth * 2);
+          }
+          int cell = this.order[at];
+          int left = this.domain[cell];
+          if (fork && depth < SolverState.FORK_DEPTH && ForkJoinTask.inForkJoinPool()
+              && ForkJoinTask.getSurplusQueuedTaskCount() <= 1) {
+            // keep the lowest turn and give the rest away
+            int keep = left & -left;
+            for (int rest = left & ~keep; rest != 0; rest &= rest - 1) {
+              SolverState copy = new SolverState(this);
+              if (copy.narrow(cell, rest & -rest) && copy.propagate()) {
+                SolverTask task = new SolverTask(search, copy, at);
+                task.fork();
+                forked.add(task);
+              }
+            }
+            left = keep;
+          }
+          this.frameAt[depth] = at;
+          this.frameMark[depth] = this.trailSize;
+          this.frameLeft[depth] = (byte) left;
+          depth++;
+        }
+      }
+
+      // try the next turn of the deepest branching cell that has one left
+      descend = false;
+      while (depth > 0 && !descend) {
+        int top = depth - 1;
+        this.undo(this.frameMark[top]);
+        int left = this.frameLeft[top];
+        if (left == 0) {
+          this.failures[this.frameAt[top]]++;
+          budget--;
+          if (budget == 0) {
+            return false;
+          }
+          depth--;
+        } else {
+          this.frameLeft[top] = (byte) (left & (left - 1));
+          int at = this.frameAt[top];
+          if (this.narrow(this.order[at], left & -left) && this.propagate()) {
+            cursor = at;
+            descend = true;
+          }
+        }
+      }
+      if (!descend) {
+        return true;
+      }
+    }
+    return true;
+  }
+
+  // EFFECT: moves the patch of the cell that ran out of turns most often in the
+  // last search to the given place in order, ahead of the patches it kept
+  // failing behind
+  void promote(int cursor) {
+    int worst = cursor;
+    for (int at = cursor; at < this.order.length; at++) {
+      if (this.failures[at] > this.failures[worst]) {
+        worst = at;
+      }
+    }
+    // order is shared with the copies of this state, so it is copied first
+    int[] order = new int[this.order.length];
+    int[] patch = new int[this.order.length];
+    System.arraycopy(this.order, 0, order, 0, cursor);
+    System.arraycopy(this.patch, 0, patch, 0, cursor);
+    int next = cursor;
+    for (int pass = 0; pass < 2; pass++) {
+      for (int at = cursor; at < this.order.length; at++) {
+        if ((this.patch[at] == this.patch[worst]) == (pass == 0)) {
+          order[next] = this.order[at];
+          patch[next] = this.patch[at];
+          next++;
+        }
+      }
+    }
+    this.order = order;
+    this.patch = patch;
+  }
+
+  // EFFECT: forgets any cells still queued
+  void emptyQueue() {
+    while (this.queueSize > 0) {
+      this.queued[this.queue[this.queueHead]] = false;
+      this.queueHead = this.queueHead + 1 == this.size ? 0 : this.queueHead + 1;
+      this.queueSize--;
+    }
+  }
+}